@@ -3,14 +3,18 @@ AES.java
 
 Description:
     Class which encrypts or decrypts some input data according to the AES implementation.
-    10 rounds are executed with the use of the static S-boxes, MixBoxes.java, and other
-    methods as defined within AESState.java
+    10, 12 or 14 rounds are executed, for 16, 24 or 32 byte keys, with the use of the static
+    S-boxes, MixBoxes.java, and other methods as defined within AESState.java
  */
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class AES {
 
+    // Size of a single AES block in bytes.
+    public static final int BLOCK_SIZE = 16;
+
     // Substitution box for Rijndael.
     public static final Integer[][] SBOX = new Integer[][]
             {{0x63, 0x7C, 0x77, 0x7B, 0xF2, 0x6B, 0x6F, 0xC5, 0x30, 0x01, 0x67, 0x2B, 0xFE, 0xD7, 0xAB, 0x76},
@@ -49,85 +53,222 @@ public class AES {
             {0xA0, 0xE0, 0x3B, 0x4D, 0xAE, 0x2A, 0xF5, 0xB0, 0xC8, 0xEB, 0xBB, 0x3C, 0x83, 0x53, 0x99, 0x61},
             {0x17, 0x2B, 0x04, 0x7E, 0xBA, 0x77, 0xD6, 0x26, 0xE1, 0x69, 0x14, 0x63, 0x55, 0x21, 0x0C, 0x7D}};
 
-    // -- Public --
-    //   Role: Encrypt and input with the given key.
-    //   Args: input - Input data to be transformed.
-    //         key - Key to encrypt with.
-    // Return: List<Integer>
+    // Flattened S-boxes so that substitution is a single primitive lookup.
+    private static final int[] SBOX_TABLE = flatten(SBOX);
+    private static final int[] INVERSE_SBOX_TABLE = flatten(INVERSE_SBOX);
+
+    private RoundKeys roundKeys; // Expanded key schedule
+    private AESState state; // Scratch state reused for every block
+
+    // -- Constructor --
+    //   Role: Create a block cipher for the given key, using the cached expansion if there is one.
+    //   Args: key - 16, 24 or 32 byte key.
+    // Return: this
     //
-    public static List<Integer> encrypt(List<Integer> input, List<Integer> key) {
+    public AES(byte[] key) {
+        this(AESKey.of(key));
+    }
 
-        // Get the inputs into a more usable format.
-        AESState state = new AESState(input);
-        RoundKeys roundKeys = new RoundKeys(key);
+    // -- Constructor --
+    //   Role: Create a block cipher from an expanded key.
+    //   Args: key - Expanded key.
+    // Return: this
+    //
+    public AES(AESKey key) {
+        this(key.getRoundKeys());
+    }
+
+    // -- Constructor --
+    //   Role: Create a block cipher from an already expanded key.
+    //         An instance reuses its state, so it must not be shared between threads.
+    //   Args: roundKeys - Expanded key schedule.
+    // Return: this
+    //
+    public AES(RoundKeys roundKeys) {
+        this.roundKeys = roundKeys;
+        this.state = new AESState();
+    }
+
+    // -- Public --
+    //   Role: Encrypt a single 16 byte block. Input and output may overlap.
+    //   Args: in - Array holding the block to encrypt.
+    //         inOff - Offset of the block within in.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    // Return: Void
+    //
+    public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        int[] keys = roundKeys.getWords();
+        int rounds = roundKeys.getRounds();
+        state.load(in, inOff);
 
         // Before first round, add round key.
-        state.addRoundKey(roundKeys.get(0));
+        state.addRoundKey(keys, 0);
 
-        // Rounds 1 through 9
-        for (int i = 1; i < 10; i++) {
+        // Rounds 1 through 9, 11 or 13
+        for (int i = 1; i < rounds; i++) {
             state.substituteBytes();
             state.shiftRows();
             state.mixColumns();
-            state.addRoundKey(roundKeys.get(i));
+            state.addRoundKey(keys, i * 4);
         }
 
         // Final round (Does not mix columns)
         state.substituteBytes();
         state.shiftRows();
-        state.addRoundKey(roundKeys.get(10));
+        state.addRoundKey(keys, rounds * 4);
 
-        // Return a list so data is no longer mutable.
-        return state.toList();
+        state.store(out, outOff);
     }
 
     // -- Public --
-    //   Role: Decrypt and input with the given key.
-    //   Args: input - Input data to be transformed.
-    //         key - Key to decrypt with.
-    // Return: List<Integer>
+    //   Role: Decrypt a single 16 byte block. Input and output may overlap.
+    //   Args: in - Array holding the block to decrypt.
+    //         inOff - Offset of the block within in.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    // Return: Void
     //
-    public static List<Integer> decrypt(List<Integer> input, List<Integer> key) {
-
-        // Get the inputs into a more usable format.
-        AESState state = new AESState(input);
-        RoundKeys roundKeys = new RoundKeys(key);
+    public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        // Equivalent inverse cipher: the same order of steps as encryption, using the
+        // decryption schedule which already has inverse mix columns applied.
+        int[] keys = roundKeys.getDecryptWords();
+        int rounds = roundKeys.getRounds();
+        state.load(in, inOff);
 
         // Before first round, add round key.
-        state.addRoundKey(roundKeys.get(10));
+        state.addRoundKey(keys, 0);
 
-        // Rounds 1 through 9
-        for (int i = 1; i < 10; i++) {
-            state.inverseShiftRows();
+        // Rounds 1 through 9, 11 or 13
+        for (int i = 1; i < rounds; i++) {
             state.inverseSubstituteBytes();
-            state.addRoundKey(roundKeys.get(10-i));
+            state.inverseShiftRows();
             state.inverseMixColumns();
+            state.addRoundKey(keys, i * 4);
         }
 
         // Final round (Does not mix columns)
-        state.inverseShiftRows();
         state.inverseSubstituteBytes();
-        state.addRoundKey(roundKeys.get(0));
+        state.inverseShiftRows();
+        state.addRoundKey(keys, rounds * 4);
+
+        state.store(out, outOff);
+    }
+
+    // -- Public --
+    //   Role: Encrypt consecutive blocks. Implementations which work on several blocks at
+    //         once override this. Input and output may overlap exactly.
+    //   Args: in - Array holding the blocks to encrypt.
+    //         inOff - Offset of the first block.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         blocks - Number of blocks.
+    // Return: Void
+    //
+    public void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        for (int i = 0; i < blocks * BLOCK_SIZE; i += BLOCK_SIZE) {
+            encryptBlock(in, inOff + i, out, outOff + i);
+        }
+    }
+
+    // -- Public --
+    //   Role: Decrypt consecutive blocks. Implementations which work on several blocks at
+    //         once override this. Input and output may overlap exactly.
+    //   Args: in - Array holding the blocks to decrypt.
+    //         inOff - Offset of the first block.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         blocks - Number of blocks.
+    // Return: Void
+    //
+    public void decryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        for (int i = 0; i < blocks * BLOCK_SIZE; i += BLOCK_SIZE) {
+            decryptBlock(in, inOff + i, out, outOff + i);
+        }
+    }
+
+    // -- Public --
+    //   Role: Encrypt and input with the given key.
+    //   Args: input - Input data to be transformed.
+    //         key - Key to encrypt with.
+    // Return: List<Integer>
+    //
+    public static List<Integer> encrypt(List<Integer> input, List<Integer> key) {
+        byte[] block = toBytes(input);
+        new AES(toBytes(key)).encryptBlock(block, 0, block, 0);
 
         // Return a list so data is no longer mutable.
-        return state.toList();
+        return toList(block);
+    }
+
+    // -- Public --
+    //   Role: Decrypt and input with the given key.
+    //   Args: input - Input data to be transformed.
+    //         key - Key to decrypt with.
+    // Return: List<Integer>
+    //
+    public static List<Integer> decrypt(List<Integer> input, List<Integer> key) {
+        byte[] block = toBytes(input);
+        new AES(toBytes(key)).decryptBlock(block, 0, block, 0);
+
+        // Return a list so data is no longer mutable.
+        return toList(block);
     }
 
     // -- Public --
     //   Role: Substitute a value through S-Box.
     //   Args: value - number to be substituted.
-    // Return: Integer
+    // Return: int
     //
-    public static Integer substitute(Integer value) {
-        return SBOX[value / 16][value % 16];
+    public static int substitute(int value) {
+        return SBOX_TABLE[value];
     }
 
     // -- Public --
     //   Role: Substitute a value through Inverse S-Box.
     //   Args: value - number to be substituted.
-    // Return: Integer
+    // Return: int
+    //
+    public static int inverseSubstitute(int value) {
+        return INVERSE_SBOX_TABLE[value];
+    }
+
+    // -- Public --
+    //   Role: Convert a list of byte values into a byte array.
+    //   Args: list - Values between 0 and 255.
+    // Return: byte[]
+    //
+    public static byte[] toBytes(List<Integer> list) {
+        byte[] bytes = new byte[list.size()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (int) list.get(i);
+        }
+        return bytes;
+    }
+
+    // -- Public --
+    //   Role: Convert a byte array into a list of values between 0 and 255.
+    //   Args: bytes - Array to convert.
+    // Return: List<Integer>
     //
-    public static Integer inverseSubstitute(Integer value) {
-        return INVERSE_SBOX[value / 16][value % 16];
+    public static List<Integer> toList(byte[] bytes) {
+        List<Integer> list = new ArrayList<>(bytes.length);
+        for (byte b : bytes) {
+            list.add(b & 0xFF);
+        }
+        return list;
+    }
+
+    // -- Private --
+    //   Role: Flatten a 16x16 S-box into a 256 entry lookup table.
+    //   Args: box - S-box to flatten.
+    // Return: int[]
+    //
+    private static int[] flatten(Integer[][] box) {
+        int[] table = new int[256];
+        for (int i = 0; i < 256; i++) {
+            table[i] = box[i / 16][i % 16];
+        }
+        return table;
     }
 }
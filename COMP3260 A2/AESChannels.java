@@ -0,0 +1,172 @@
+/*
+AESChannels.java
+
+Description:
+    Static methods which wrap NIO byte channels so that everything read from or written to
+    them passes through an AESMode. Like the streams, only a buffer of data is held at once.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+public class AESChannels {
+
+    // Amount of data processed at once.
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private AESChannels() {
+    }
+
+    // -- Public Static --
+    //   Role: Wrap a channel so the data read from it is encrypted or decrypted.
+    //   Args: channel - Channel to read the input from.
+    //         mode - Mode to run the data through, with a fresh stream state.
+    // Return: ReadableByteChannel
+    //
+    public static ReadableByteChannel newReadableChannel(ReadableByteChannel channel, AESMode mode) {
+        return new ReadableAESChannel(channel, mode);
+    }
+
+    // -- Public Static --
+    //   Role: Wrap a channel so the data written to it is encrypted or decrypted first.
+    //         The channel must be closed to process the final partial unit of a stream mode.
+    //   Args: channel - Channel to write the result to.
+    //         mode - Mode to run the data through, with a fresh stream state.
+    // Return: WritableByteChannel
+    //
+    public static WritableByteChannel newWritableChannel(WritableByteChannel channel, AESMode mode) {
+        return new WritableAESChannel(channel, mode);
+    }
+
+    // -- Private Static --
+    //   Role: Write the whole of a buffer to a channel.
+    //   Args: channel - Channel to write to.
+    //         buffer - Data to write.
+    // Return: Void
+    //
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Channel which processes data after reading it from another channel.
+    private static class ReadableAESChannel implements ReadableByteChannel {
+
+        private final ReadableByteChannel channel;
+        private final AESMode mode;
+        private final ByteBuffer input = ByteBuffer.allocate(CHUNK_SIZE);
+        private final ByteBuffer output;
+        private boolean finished;
+
+        ReadableAESChannel(ReadableByteChannel channel, AESMode mode) {
+            this.channel = channel;
+            this.mode = mode;
+            this.output = ByteBuffer.allocate(CHUNK_SIZE + mode.getUnitSize());
+            this.output.flip();
+            mode.reset();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!isOpen())
+                throw new ClosedChannelException();
+
+            while (!output.hasRemaining()) {
+                if (finished)
+                    return -1;
+
+                input.clear();
+                int read = channel.read(input);
+                output.clear();
+                if (read < 0) {
+                    finished = true;
+                    try {
+                        output.put(mode.doFinal());
+                    } catch (IllegalStateException e) {
+                        throw new IOException(e.getMessage(), e);
+                    }
+                } else if (read == 0) {
+                    // Non-blocking channel with nothing to offer yet.
+                    output.flip();
+                    return 0;
+                } else {
+                    output.position(mode.update(input.array(), 0, read, output.array(), 0));
+                }
+                output.flip();
+            }
+
+            int count = Math.min(dst.remaining(), output.remaining());
+            ByteBuffer slice = output.duplicate();
+            slice.limit(slice.position() + count);
+            dst.put(slice);
+            output.position(output.position() + count);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Channel which processes data before writing it to another channel.
+    private static class WritableAESChannel implements WritableByteChannel {
+
+        private final WritableByteChannel channel;
+        private final AESMode mode;
+        private final byte[] input = new byte[CHUNK_SIZE];
+        private final byte[] output;
+        private boolean closed;
+
+        WritableAESChannel(WritableByteChannel channel, AESMode mode) {
+            this.channel = channel;
+            this.mode = mode;
+            this.output = new byte[CHUNK_SIZE + mode.getUnitSize()];
+            mode.reset();
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (closed)
+                throw new ClosedChannelException();
+
+            int total = src.remaining();
+            while (src.hasRemaining()) {
+                int chunk = Math.min(src.remaining(), CHUNK_SIZE);
+                src.get(input, 0, chunk);
+                int written = mode.update(input, 0, chunk, output, 0);
+                writeFully(channel, ByteBuffer.wrap(output, 0, written));
+            }
+            return total;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed && channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+
+            try {
+                writeFully(channel, ByteBuffer.wrap(mode.doFinal()));
+            } catch (IllegalStateException e) {
+                throw new IOException(e.getMessage(), e);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+AESInputStream.java
+
+Description:
+    An input stream which encrypts or decrypts the data read from an underlying stream with
+    an AESMode. Data is read and processed a buffer at a time, so memory use does not grow
+    with the amount of data.
+ */
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class AESInputStream extends FilterInputStream {
+
+    // Amount read from the underlying stream at once.
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final AESMode mode;
+    private final byte[] readBuffer = new byte[CHUNK_SIZE];
+    private byte[] buffer; // Processed bytes waiting to be read
+    private int position;
+    private int limit;
+    private boolean finished;
+
+    // -- Constructor --
+    //   Role: Wrap a stream.
+    //   Args: in - Stream to read the input from.
+    //         mode - Mode to run the data through, with a fresh stream state.
+    // Return: this
+    //
+    public AESInputStream(InputStream in, AESMode mode) {
+        super(in);
+        this.mode = mode;
+        this.buffer = new byte[CHUNK_SIZE + mode.getUnitSize()];
+        mode.reset();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill())
+            return -1;
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!fill())
+            return -1;
+
+        int count = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes still have to pass through the mode to keep the chain going.
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            int count = (int) Math.min(n - skipped, limit - position);
+            position += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    // -- Private --
+    //   Role: Make sure there are processed bytes waiting, reading more input if needed.
+    //   Args: None
+    // Return: boolean - False once the stream is exhausted.
+    //
+    private boolean fill() throws IOException {
+        while (position == limit) {
+            if (finished)
+                return false;
+
+            int read = in.read(readBuffer);
+            position = 0;
+            if (read < 0) {
+                finished = true;
+                try {
+                    byte[] last = mode.doFinal();
+                    System.arraycopy(last, 0, buffer, 0, last.length);
+                    limit = last.length;
+                } catch (IllegalStateException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            } else {
+                limit = mode.update(readBuffer, 0, read, buffer, 0);
+            }
+        }
+        return true;
+    }
+}
@@ -4,14 +4,36 @@ AESInterface.java
 Description:
     Class which starts the program. It gathers the input data, executes the
     appropriate mode of encryption / decryption, and then prints the results.
+    Given command line arguments, it instead encrypts or decrypts a file (see FileCommand.java)
+    or a directory tree (see TreeCommand.java), or runs many jobs in the one process
+    (see BatchCommand.java).
  */
 
+import java.io.IOException;
 import java.util.InputMismatchException;
 import java.util.Scanner;
 
 public class AESInterface {
 
+    // Usage note for the commands which pick an engine by calibrating.
+    private static final String ENGINE_USAGE = "Engine measurements of --engine auto are kept between runs"
+            + " only with java -D" + EngineSelector.CACHE_PROPERTY + "=file.";
+
     public static void main(String[] args) {
+        // Arguments mean a batch of jobs or a file is to be processed instead of console input.
+        if (BatchCommand.isBatch(args)) {
+            runBatch(args);
+            return;
+        }
+        if (TreeCommand.isTree(args)) {
+            runTree(args);
+            return;
+        }
+        if (args.length > 0) {
+            runFile(args);
+            return;
+        }
+
         // Set up scanner and parameters class
         Scanner scanner = new Scanner(System.in);
         InputParameters params;
@@ -26,27 +48,122 @@ public class AESInterface {
             return;
         }
 
-        // Determine which mode of operation to use
+        // Run the encryption or decryption, then print the final result.
         AESMode mode;
+        try {
+            mode = createMode(params);
+            mode.run();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // Input the mode cannot process, such as a GCM tag which does not match.
+            System.out.println("Could not process input: " + e.getMessage());
+            return;
+        }
+        mode.printOutput();
+    }
+
+    // -- Public Static --
+    //   Role: Determine which mode of operation to use.
+    //   Args: params - Parameters holding the mode number.
+    // Return: AESMode
+    //
+    public static AESMode createMode(InputParameters params) {
         switch(params.getMode()) {
             default:
             case 0:
-                mode = new ECB(params);
-                break;
+                return new ECB(params);
             case 1:
-                mode = new CFB(params);
-                break;
+                return new CFB(params);
             case 2:
-                mode = new CBC(params);
-                break;
+                return new CBC(params);
             case 3:
-                mode = new OFB(params);
-                break;
+                return new OFB(params);
+            case 4:
+                return new CTR(params);
+            case 5:
+                return new GCM(params);
+            case 6:
+                return new XTS(params);
         }
+    }
 
-        // Run the encryption or decryption, then print the final result.
-        mode.run();
-        mode.printOutput();
+    // -- Private Static --
+    //   Role: Run a batch of jobs, or serve them, as described by the command line arguments.
+    //   Args: args - Command line arguments.
+    // Return: Void
+    //
+    private static void runBatch(String[] args) {
+        BatchCommand command;
+        try {
+            command = new BatchCommand(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Arguments invalid: " + e.getMessage());
+            System.out.println("Usage: AESInterface --batch file|- | --serve port [--workers n] [--engine name]");
+            System.out.println(ENGINE_USAGE);
+            return;
+        }
+
+        try {
+            command.run();
+        } catch (IOException e) {
+            System.out.println("Could not process batch: " + e.getMessage());
+        }
     }
 
+    // -- Private Static --
+    //   Role: Encrypt or decrypt a file as described by the command line arguments.
+    //   Args: args - Command line arguments.
+    // Return: Void
+    //
+    private static void runFile(String[] args) {
+        FileCommand command;
+        try {
+            command = new FileCommand(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Arguments invalid: " + e.getMessage());
+            System.out.println("Usage: AESInterface --in file --out file --mode ECB|CFB|CBC|OFB|CTR|GCM|XTS --key hex"
+                    + " [--iv hex] [--size n] [--decrypt] [--engine name] [--sector-size n] [--sectors first:count]"
+                    + " [--container [--chunk-size n] [--range position:length]]");
+            System.out.println(ENGINE_USAGE);
+            return;
+        }
+
+        try {
+            long written = command.run();
+            System.out.printf("Output for %s (%s): %d bytes written to %s\n",
+                    command.getParams().isEncrypting() ? "encrypting" : "decrypting",
+                    FileCommand.MODES.get(command.getParams().getMode()),
+                    written, command.getOutput());
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            System.out.println("Could not process file: " + e.getMessage());
+        }
+    }
+
+    // -- Private Static --
+    //   Role: Encrypt or decrypt a directory tree as described by the command line arguments.
+    //   Args: args - Command line arguments.
+    // Return: Void
+    //
+    private static void runTree(String[] args) {
+        TreeCommand command;
+        try {
+            command = new TreeCommand(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Arguments invalid: " + e.getMessage());
+            System.out.println("Usage: AESInterface --tree dir --out dir --mode ECB|CFB|CBC|OFB|CTR|GCM|XTS --key hex"
+                    + " [--size n] [--decrypt] [--workers n] [--chunk-size n] [--engine name]");
+            System.out.println("ECB and CBC add no padding, so files which are not a whole number of blocks fail in them.");
+            System.out.println(ENGINE_USAGE);
+            return;
+        }
+
+        try {
+            long written = command.run();
+            System.out.printf("Output for %s (%s): %d files, %d bytes written to %s",
+                    command.isEncrypting() ? "encrypting" : "decrypting", command.getModeName(),
+                    command.getFiles() - command.getFailures(), written, command.getOutput());
+            System.out.println(command.getFailures() == 0 ? "" : ", " + command.getFailures() + " failed");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not process tree: " + e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,110 @@
+/*
+AESKey.java
+
+Description:
+    Class which holds a key together with its expanded key schedule, so that key expansion
+    is done once per key rather than once per block. A bounded LRU cache of expanded keys
+    is kept for callers which repeatedly hand over the same raw key bytes.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class AESKey {
+
+    // Maximum number of expanded keys kept in the cache.
+    public static final int CACHE_SIZE = 64;
+
+    // Least recently used keys are evicted once the cache is full.
+    private static final Map<ByteBuffer, AESKey> CACHE = new LinkedHashMap<ByteBuffer, AESKey>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, AESKey> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static long cacheHits;
+    private static long cacheMisses;
+
+    private final byte[] key; // Private copy of the raw key
+    private final RoundKeys roundKeys; // Expanded key schedule
+
+    // -- Constructor --
+    //   Role: Expand a key. Use of() to share expansions between callers.
+    //   Args: key - Raw key bytes, 16, 24 or 32 of them for AES-128, AES-192 or AES-256.
+    // Return: this
+    //
+    public AESKey(byte[] key) {
+        this.key = key.clone();
+        this.roundKeys = new RoundKeys(this.key);
+    }
+
+    // -- Public Static --
+    //   Role: Get the expanded key for the given bytes, expanding it only if not cached.
+    //   Args: key - Raw key bytes.
+    // Return: AESKey
+    //
+    public static AESKey of(byte[] key) {
+        ByteBuffer lookup = ByteBuffer.wrap(key);
+        synchronized (CACHE) {
+            AESKey cached = CACHE.get(lookup);
+            if (cached != null) {
+                cacheHits++;
+                return cached;
+            }
+            cacheMisses++;
+        }
+
+        // Expand outside of the lock, the cache is keyed on the private copy.
+        AESKey expanded = new AESKey(key);
+        synchronized (CACHE) {
+            CACHE.put(ByteBuffer.wrap(expanded.key), expanded);
+        }
+        return expanded;
+    }
+
+    // -- Public Static --
+    //   Role: Number of of() calls answered from the cache.
+    //   Args: None
+    // Return: long
+    //
+    public static long getCacheHits() {
+        synchronized (CACHE) {
+            return cacheHits;
+        }
+    }
+
+    // -- Public Static --
+    //   Role: Number of of() calls which had to expand a key.
+    //   Args: None
+    // Return: long
+    //
+    public static long getCacheMisses() {
+        synchronized (CACHE) {
+            return cacheMisses;
+        }
+    }
+
+    // -- Getters -- //
+
+    public byte[] getBytes() {
+        return key.clone();
+    }
+
+    public RoundKeys getRoundKeys() {
+        return roundKeys;
+    }
+
+    public int getRounds() {
+        return roundKeys.getRounds();
+    }
+
+    public int[] getWords() {
+        return roundKeys.getWords();
+    }
+
+    public int[] getDecryptWords() {
+        return roundKeys.getDecryptWords();
+    }
+}
@@ -0,0 +1,287 @@
+/*
+AESMetrics.java
+
+Description:
+    Instrumentation of the modes for long running processes. Every run(), update() and
+    doFinal() of an AESMode is recorded against its mode and engine (see ModeStats.java):
+    bytes and blocks processed and the latency of the call, with no allocation once a mode
+    and engine pair has been seen. For long running processes each ModeStats can be registered
+    as an MXBean under the domain "aes", beside one for the totals and the key schedule cache,
+    by calling registerMXBeans() or setting the system property aes.metrics.jmx to true.
+    Short runs such as a single console job never start the platform MBean server, which
+    takes a noticeable time, and once asked for, registration happens on a background thread
+    rather than delaying any call. A text report can also be printed periodically, either by
+    calling startDump() or by setting the system property aes.metrics.dump to a number of seconds.
+    Setting aes.metrics to false turns recording off.
+ */
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class AESMetrics implements AESMetricsMXBean {
+
+    // System property giving the period of the text dump in seconds, unset for none.
+    public static final String DUMP_PROPERTY = "aes.metrics.dump";
+
+    // System property which turns recording off when set to false.
+    public static final String ENABLED_PROPERTY = "aes.metrics";
+
+    // System property which registers the MXBeans from the start when set to true.
+    public static final String JMX_PROPERTY = "aes.metrics.jmx";
+
+    // Domain of the MXBeans.
+    public static final String DOMAIN = "aes";
+
+    private static final AESMetrics INSTANCE = new AESMetrics();
+
+    // Statistics by mode name, then engine name, so finding them builds no key.
+    private static final Map<String, Map<String, ModeStats>> STATS = new ConcurrentHashMap<>();
+
+    // Statistics whose MXBean has been queued for registration, so each is registered once.
+    private static final Set<ModeStats> REGISTERED = ConcurrentHashMap.newKeySet();
+
+    // Registers MXBeans and prints dumps, off the threads running the modes.
+    private static final ScheduledExecutorService WORKER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "aes-metrics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static volatile boolean enabled = !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+    private static volatile boolean registering; // Whether MXBeans are registered as stats are created
+    private static ScheduledFuture<?> dump;
+
+    static {
+        if (Boolean.getBoolean(JMX_PROPERTY))
+            registerMXBeans();
+        String period = System.getProperty(DUMP_PROPERTY);
+        if (period != null) {
+            // A bad setting only loses the dump, it must not stop the modes from loading.
+            try {
+                startDump(Long.parseLong(period.trim()), System.err);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring " + DUMP_PROPERTY + "=" + period
+                        + ", it must be a whole number of seconds, at least 1");
+            }
+        }
+    }
+
+    private AESMetrics() {
+    }
+
+    // -- Public Static --
+    //   Role: Record a call of a mode.
+    //   Args: mode - Mode which was called.
+    //         length - Number of bytes the call processed.
+    //         start - System.nanoTime() when the call started.
+    // Return: Void
+    //
+    public static void record(AESMode mode, long length, long start) {
+        if (!enabled)
+            return;
+        long nanos = System.nanoTime() - start;
+        getStats(mode.getMode(), mode.getEngineName()).record(length, nanos);
+    }
+
+    // -- Public Static --
+    //   Role: Get the statistics of a mode on an engine, creating and registering them if new.
+    //   Args: mode - Name of the mode.
+    //         engine - Name of the engine.
+    // Return: ModeStats
+    //
+    public static ModeStats getStats(String mode, String engine) {
+        Map<String, ModeStats> engines = STATS.get(mode);
+        if (engines == null)
+            engines = STATS.computeIfAbsent(mode, name -> new ConcurrentHashMap<>());
+
+        ModeStats stats = engines.get(engine);
+        if (stats == null) {
+            stats = engines.computeIfAbsent(engine, name -> {
+                ModeStats created = new ModeStats(mode, name);
+                if (registering)
+                    register(created);
+                return created;
+            });
+        }
+        return stats;
+    }
+
+    // -- Public Static --
+    //   Role: Every mode and engine seen so far, ordered by mode then engine.
+    //   Args: None
+    // Return: List<ModeStats>
+    //
+    public static List<ModeStats> getAllStats() {
+        List<ModeStats> all = new ArrayList<>();
+        for (Map<String, ModeStats> engines : STATS.values()) {
+            all.addAll(engines.values());
+        }
+        all.sort(Comparator.comparing(ModeStats::getMode).thenComparing(ModeStats::getEngine));
+        return all;
+    }
+
+    // -- Public Static --
+    //   Role: Register the totals and every mode and engine seen so far as MXBeans, and those
+    //         seen from now on as they appear. Calling it again does nothing.
+    //   Args: None
+    // Return: Void
+    //
+    public static synchronized void registerMXBeans() {
+        if (registering)
+            return;
+        registering = true;
+        register(INSTANCE, DOMAIN + ":type=Metrics");
+        for (ModeStats stats : getAllStats()) {
+            register(stats);
+        }
+    }
+
+    // -- Public Static --
+    //   Role: Print the report periodically, replacing any dump already running.
+    //   Args: periodSeconds - Time between reports.
+    //         out - Stream to print to.
+    // Return: Void
+    //
+    public static synchronized void startDump(long periodSeconds, PrintStream out) {
+        if (periodSeconds < 1)
+            throw new IllegalArgumentException("Metrics dump period must be at least a second");
+        stopDump();
+        dump = WORKER.scheduleAtFixedRate(() -> out.print(format(true)), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    // -- Public Static --
+    //   Role: Stop the periodic report.
+    //   Args: None
+    // Return: Void
+    //
+    public static synchronized void stopDump() {
+        if (dump != null)
+            dump.cancel(false);
+        dump = null;
+    }
+
+    // -- Public Static --
+    //   Role: The instance registered as the totals MXBean.
+    //   Args: None
+    // Return: AESMetrics
+    //
+    public static AESMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    // -- Public --
+    //   Role: Text report of the key cache and every mode and engine seen so far.
+    //   Args: None
+    // Return: String
+    //
+    @Override
+    public String report() {
+        return format(false);
+    }
+
+    // -- Public --
+    //   Role: Clear the statistics of every mode.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    public void reset() {
+        for (ModeStats stats : getAllStats()) {
+            stats.reset();
+        }
+    }
+
+    // -- Private Static --
+    //   Role: Build the report.
+    //   Args: mark - Whether to add the rate since the last dump and start a new interval.
+    // Return: String
+    //
+    private static String format(boolean mark) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("AES metrics %s: key cache hits %d misses %d (%.1f%%)%n",
+                LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME),
+                INSTANCE.getKeyCacheHits(), INSTANCE.getKeyCacheMisses(), INSTANCE.getKeyCacheHitRatio() * 100));
+        for (ModeStats stats : getAllStats()) {
+            report.append("  ").append(stats);
+            if (mark)
+                report.append(String.format("  recent blocks/s %12.0f", stats.mark()));
+            report.append(System.lineSeparator());
+        }
+        return report.toString();
+    }
+
+    // -- Private Static --
+    //   Role: Register the MXBean of a mode and engine, unless it already has been. Stats
+    //         created while registerMXBeans() runs are reached both from getStats() and from
+    //         its loop, and only the first of the two registers them.
+    //   Args: stats - Statistics of the mode on the engine.
+    // Return: Void
+    //
+    private static void register(ModeStats stats) {
+        if (!REGISTERED.add(stats))
+            return;
+        register(stats, String.format("%s:type=ModeStats,mode=%s,engine=%s", DOMAIN, stats.getMode(), stats.getEngine()));
+    }
+
+    // -- Private Static --
+    //   Role: Register an MXBean on the worker thread. A failure only loses the JMX view,
+    //         recording carries on.
+    //   Args: bean - Object implementing an MXBean interface.
+    //         name - Object name to register it under.
+    // Return: Void
+    //
+    private static void register(Object bean, String name) {
+        WORKER.execute(() -> {
+            try {
+                ObjectName objectName = new ObjectName(name);
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.registerMBean(bean, objectName);
+            } catch (JMException | SecurityException e) {
+                System.err.println("Could not register " + name + ": " + e.getMessage());
+            }
+        });
+    }
+
+    // -- Getters and Setters -- //
+
+    @Override
+    public long getKeyCacheHits() {
+        return AESKey.getCacheHits();
+    }
+
+    @Override
+    public long getKeyCacheMisses() {
+        return AESKey.getCacheMisses();
+    }
+
+    @Override
+    public double getKeyCacheHitRatio() {
+        long lookups = getKeyCacheHits() + getKeyCacheMisses();
+        return lookups == 0 ? 0 : (double) getKeyCacheHits() / lookups;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        AESMetrics.enabled = enabled;
+    }
+}
@@ -0,0 +1,25 @@
+/*
+AESMetricsMXBean.java
+
+Description:
+    Management interface of AESMetrics as a whole, the figures not tied to one mode.
+ */
+
+public interface AESMetricsMXBean {
+
+    long getKeyCacheHits();
+
+    long getKeyCacheMisses();
+
+    // Fraction of key lookups answered from the cache.
+    double getKeyCacheHitRatio();
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    // Text dump of every mode and engine seen so far.
+    String report();
+
+    void reset();
+}
@@ -2,18 +2,58 @@
 AESMode.java
 
 Description:
-    An abstract class that is extended by ECB, CBC, CFB, and OFB classes. These classes
+    An abstract class that is extended by ECB, CBC, CFB, OFB, CTR, GCM, and XTS classes. These classes
     define the mode of operation for encryption and decryption for a particular block cipher.
+    Besides run(), which processes the whole input text at once, a mode can be fed
+    incrementally through update() and doFinal(), carrying its chaining state between calls,
+    or run in place over a ByteBuffer: a heap buffer in its backing array, and a direct one
+    copied a window at a time through a heap array of at most 1 MiB and back, so memory use
+    does not grow with the buffer.
  */
 
-import java.util.ArrayList;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public abstract class AESMode {
 
+    // Number of blocks below which a range is not split any further when running in parallel.
+    public static final int PARALLEL_THRESHOLD = 1024;
+
+    // Byte arrays viewed as longs for XOR, in native order as the order does not matter to it.
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    // Number of blocks handed to the block cipher at once by multi-block paths.
+    protected static final int BATCH_BLOCKS = BitslicedAES.LANES;
+
+    // Size of the window a direct buffer is copied through when processed in place.
+    private static final int IN_PLACE_WINDOW = 1024 * 1024;
+
     private String mode;
     private InputParameters params; // Parameters supplied by user
-    private List<Integer> output; // The result from running the mode
+    private AESKey key; // Key expanded once for every block of the run
+    private boolean tableDriven; // Use TableAES rather than the reference AES rounds
+    private boolean parallel; // Spread independent blocks across the fork join pool
+    private boolean bitsliced; // Use BitslicedAES for independent blocks
+    private BlockEngine engine; // Engine every cipher is created on, overrides the two flags above
+    private byte[] output; // The result from running the mode
+
+    // Streaming state
+    private byte[] pending; // Input held back until a whole unit is available
+    private int pendingLength;
+    private boolean streaming; // Whether the chaining state belongs to a stream in progress
+    private byte[] scratch; // Window for processing direct buffers in place
 
     // -- Constructor --
     //   Role: Create generic AESMode
@@ -21,25 +61,392 @@ public abstract class AESMode {
     // Return: this
     //
     public AESMode(InputParameters params, String mode) {
+        this(params, mode, AESKey.of(params.getKeyBytes()));
+    }
+
+    // -- Constructor --
+    //   Role: Create generic AESMode for a mode which derives its block cipher key from the key given.
+    //   Args: params - The parameters as defined when the program is initiated.
+    //         mode - Name of the mode.
+    //         key - Expanded key for the block cipher.
+    // Return: this
+    //
+    protected AESMode(InputParameters params, String mode, AESKey key) {
         setMode(mode);
         setParams(params);
-        setOutput(new ArrayList<>(params.getInputText().size()));
+        setKey(key);
+        setOutput(new byte[0]);
     }
 
-    // -- Public Abstract --
-    //   Role: Run the mode.
+    // -- Public --
+    //   Role: Run the mode over the whole input, recording the call in AESMetrics.
     //   Args: None
     // Return: Void
     //
-    public abstract void run();
+    public void run() {
+        long start = System.nanoTime();
+        runMode();
+        AESMetrics.record(this, getParams().getInputBytes().length, start);
+    }
+
+    // -- Protected Abstract --
+    //   Role: Run the mode over the whole input, setting the output.
+    //   Args: None
+    // Return: Void
+    //
+    protected abstract void runMode();
+
+    // -- Protected Abstract --
+    //   Role: Return the chaining state (IV, feedback register, counter) to its initial value.
+    //   Args: None
+    // Return: Void
+    //
+    protected abstract void resetChain();
+
+    // -- Protected Abstract --
+    //   Role: Process whole units, continuing from the current chaining state.
+    //         The output may be the same range of the same array as the input.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         units - Number of whole units to process.
+    // Return: Void
+    //
+    protected abstract void processUnits(byte[] in, int inOff, byte[] out, int outOff, int units);
 
     // -- Protected --
-    //   Role: Append a list to the current output.
-    //   Args: list - Items to add to the output
+    //   Role: Process a final unit shorter than getUnitSize(). Block modes cannot.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         length - Number of bytes, less than one unit.
     // Return: Void
     //
-    protected void addToOutput(List<Integer> list) {
-        getOutput().addAll(list);
+    protected void processFinal(byte[] in, int inOff, byte[] out, int outOff, int length) {
+        throw new IllegalStateException(String.format(
+                "%s input length must be a multiple of %d bytes", getMode(), getUnitSize()));
+    }
+
+    // -- Protected --
+    //   Role: Complete a stream once all of its input has been processed, for modes which
+    //         append or check something at the end such as an authentication tag.
+    //   Args: None
+    // Return: byte[] - Bytes to append to the output, none by default.
+    //
+    protected byte[] finish() {
+        return new byte[0];
+    }
+
+    // -- Public --
+    //   Role: Number of bytes processed as one unit, a block by default.
+    //   Args: None
+    // Return: int
+    //
+    public int getUnitSize() {
+        return AES.BLOCK_SIZE;
+    }
+
+    // -- Public --
+    //   Role: Feed the next part of the input to a stream, writing out every whole unit.
+    //         Bytes making up a partial unit are held until the next call.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         length - Number of input bytes.
+    //         out - Array to write the result to, with room for getOutputSize(length) bytes.
+    //         outOff - Offset to write the result at.
+    // Return: int - Number of bytes written.
+    //
+    public int update(byte[] in, int inOff, int length, byte[] out, int outOff) {
+        long start = System.nanoTime();
+        int written = feed(in, inOff, length, out, outOff);
+        AESMetrics.record(this, length, start);
+        return written;
+    }
+
+    // -- Protected --
+    //   Role: Body of update(), which times it. Modes which hold back more than a partial unit
+    //         override this rather than update(), so every call is recorded once.
+    //   Args: in, inOff, length, out, outOff - As for update.
+    // Return: int - Number of bytes written.
+    //
+    protected int feed(byte[] in, int inOff, int length, byte[] out, int outOff) {
+        startStream();
+        int unit = getUnitSize();
+        int written = 0;
+
+        // Complete the unit held back from the last call first.
+        if (pendingLength > 0) {
+            int take = Math.min(length, unit - pendingLength);
+            System.arraycopy(in, inOff, pending, pendingLength, take);
+            pendingLength += take;
+            inOff += take;
+            length -= take;
+            if (pendingLength < unit)
+                return 0;
+            written = unit;
+        }
+
+        // Input still to be read could be overwritten if the output is not exactly in place.
+        int target = outOff + written;
+        if (in == out && inOff != target && inOff < target + length && outOff < inOff + length) {
+            in = Arrays.copyOfRange(in, inOff, inOff + length);
+            inOff = 0;
+        }
+
+        if (written > 0) {
+            processUnits(pending, 0, out, outOff, 1);
+            pendingLength = 0;
+        }
+
+        int units = length / unit;
+        processUnits(in, inOff, out, target, units);
+        written += units * unit;
+
+        // Keep the remainder for the next call.
+        pendingLength = length - units * unit;
+        System.arraycopy(in, inOff + units * unit, pending, 0, pendingLength);
+        return written;
+    }
+
+    // -- Public --
+    //   Role: Feed the next part of the input to a stream.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         length - Number of input bytes.
+    // Return: byte[] - Every whole unit that could be processed.
+    //
+    public byte[] update(byte[] in, int inOff, int length) {
+        byte[] out = new byte[getOutputSize(length)];
+        update(in, inOff, length, out, 0);
+        return out;
+    }
+
+    // -- Public --
+    //   Role: Finish a stream, processing any partial unit held back, and reset it for reuse.
+    //   Args: None
+    // Return: byte[] - Output for the held back bytes followed by anything the mode adds
+    //                  at the end of a stream, empty if neither.
+    //
+    public byte[] doFinal() {
+        long start = System.nanoTime();
+        startStream();
+        byte[] out = new byte[pendingLength];
+        byte[] trailer;
+        try {
+            if (pendingLength > 0)
+                processFinal(pending, 0, out, 0, pendingLength);
+            trailer = finish();
+        } finally {
+            reset();
+        }
+        // The bytes held back were counted by the update() which gave them.
+        AESMetrics.record(this, 0, start);
+
+        if (trailer.length == 0)
+            return out;
+        byte[] result = Arrays.copyOf(out, out.length + trailer.length);
+        System.arraycopy(trailer, 0, result, out.length, trailer.length);
+        return result;
+    }
+
+    // -- Public --
+    //   Role: Encrypt or decrypt a buffer where it sits, as the next part of a stream. Every
+    //         whole unit from the position to the limit is processed in place and the position
+    //         moved past them. A partial unit left over is not touched, so the caller can
+    //         compact the buffer and pass it again with more data, or end with doFinal(ByteBuffer).
+    //         Heap buffers are processed in their backing array; direct buffers a window at a
+    //         time through a scratch array, never one the size of the buffer.
+    //   Args: buffer - Data to process, heap or direct.
+    // Return: int - Number of bytes processed.
+    //
+    public int update(ByteBuffer buffer) {
+        long start = System.nanoTime();
+        int length = updateInPlace(buffer);
+        AESMetrics.record(this, length, start);
+        return length;
+    }
+
+    // -- Public --
+    //   Role: Finish a stream in place, processing everything from the position to the limit,
+    //         and reset it for reuse. Only modes which add nothing at the end of a stream can.
+    //   Args: buffer - Data to process, heap or direct.
+    // Return: int - Number of bytes processed.
+    //
+    public int doFinal(ByteBuffer buffer) {
+        long start = System.nanoTime();
+        int length;
+        try {
+            length = updateInPlace(buffer);
+            int remaining = buffer.remaining();
+            if (remaining > 0) {
+                processInPlace(buffer, remaining, 0);
+                length += remaining;
+            }
+            finish();
+        } finally {
+            reset();
+        }
+        AESMetrics.record(this, length, start);
+        return length;
+    }
+
+    // -- Public --
+    //   Role: Encrypt or decrypt a buffer in place as a message of its own, from the position
+    //         to the limit, starting from the IV. The position ends at the limit.
+    //   Args: buffer - Data to process, heap or direct.
+    // Return: Void
+    //
+    public void process(ByteBuffer buffer) {
+        reset();
+        doFinal(buffer);
+    }
+
+    // -- Protected --
+    //   Role: Whether the mode can run in place over a ByteBuffer, which it cannot if it adds
+    //         to or takes from the end of a stream.
+    //   Args: None
+    // Return: boolean
+    //
+    protected boolean isInPlaceSupported() {
+        return true;
+    }
+
+    // -- Private --
+    //   Role: Body of update(ByteBuffer), which times it.
+    //   Args: buffer - Data to process.
+    // Return: int - Number of bytes processed.
+    //
+    private int updateInPlace(ByteBuffer buffer) {
+        if (!isInPlaceSupported())
+            throw new IllegalStateException(getMode() + " cannot run in place, it adds to or takes from the end of the data");
+        startStream();
+        if (pendingLength > 0)
+            throw new IllegalStateException("Bytes held back by update(byte[]) cannot be processed in place");
+
+        int unit = getUnitSize();
+        int units = buffer.remaining() / unit;
+        processInPlace(buffer, units * unit, units);
+        return units * unit;
+    }
+
+    // -- Private --
+    //   Role: Process bytes at the position of a buffer in place and move the position past them.
+    //   Args: buffer - Buffer holding the data.
+    //         length - Number of bytes.
+    //         units - Number of whole units in length, or 0 for a final partial unit.
+    // Return: Void
+    //
+    private void processInPlace(ByteBuffer buffer, int length, int units) {
+        if (length == 0)
+            return;
+        int position = buffer.position();
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int offset = buffer.arrayOffset() + position;
+            if (units > 0)
+                processUnits(array, offset, array, offset, units);
+            else
+                processFinal(array, offset, array, offset, length);
+            buffer.position(position + length);
+            return;
+        }
+
+        // Copy a window of whole units out, process it and put it back where it came from.
+        int unit = getUnitSize();
+        int window = Math.max(1, IN_PLACE_WINDOW / unit) * unit;
+        if (scratch == null || scratch.length < window)
+            scratch = new byte[window];
+
+        for (int done = 0; done < length; done += window) {
+            int count = Math.min(window, length - done);
+            buffer.get(scratch, 0, count);
+            if (units > 0)
+                processUnits(scratch, 0, scratch, 0, count / unit);
+            else
+                processFinal(scratch, 0, scratch, 0, count);
+            buffer.position(position + done);
+            buffer.put(scratch, 0, count);
+        }
+    }
+
+    // -- Public --
+    //   Role: Abandon a stream, so the next update() starts again from the IV.
+    //   Args: None
+    // Return: Void
+    //
+    public void reset() {
+        pendingLength = 0;
+        streaming = false;
+    }
+
+    // -- Public --
+    //   Role: Number of bytes the next update() of the given length will write.
+    //   Args: length - Number of input bytes.
+    // Return: int
+    //
+    public int getOutputSize(int length) {
+        int unit = getUnitSize();
+        return (pendingLength + length) / unit * unit;
+    }
+
+    // -- Private --
+    //   Role: Set up the chaining state on the first call of a stream.
+    //   Args: None
+    // Return: Void
+    //
+    private void startStream() {
+        if (streaming)
+            return;
+        if (pending == null || pending.length != getUnitSize())
+            pending = new byte[getUnitSize()];
+        resetChain();
+        streaming = true;
+    }
+
+    // -- Protected --
+    //   Role: Create a block cipher for the key supplied by the user.
+    //         The key schedule is shared, only the cipher's scratch state is new.
+    //   Args: None
+    // Return: AES - From the engine if one is set, otherwise TableAES if table driven and
+    //               the reference implementation if not.
+    //
+    protected AES newCipher() {
+        if (engine != null)
+            return engine.newCipher(getKey());
+        if (isTableDriven())
+            return new TableAES(getKey());
+        return new AES(getKey());
+    }
+
+    // -- Protected --
+    //   Role: Create a block cipher for paths which encrypt or decrypt many independent
+    //         blocks at once through encryptBlocks() and decryptBlocks().
+    //   Args: None
+    // Return: AES - The engine's batch cipher if one is set, otherwise BitslicedAES if bitsliced
+    //               and the same as newCipher() if not.
+    //
+    protected AES newBatchCipher() {
+        if (engine != null)
+            return engine.newBatchCipher(getKey());
+        if (isBitsliced())
+            return new BitslicedAES(getKey());
+        return newCipher();
+    }
+
+    // -- Protected --
+    //   Role: Process blocks 0 to blocks - 1, split into ranges over the common fork join pool
+    //         if running in parallel. Each range must only touch its own blocks of the output.
+    //   Args: blocks - Number of blocks to process.
+    //         range - Processes a range of blocks.
+    // Return: Void
+    //
+    protected void forEachBlockRange(int blocks, BlockRange range) {
+        if (isParallel() && blocks > PARALLEL_THRESHOLD)
+            ForkJoinPool.commonPool().invoke(new BlockTask(range, 0, blocks));
+        else
+            range.process(0, blocks);
     }
 
     // -- Public --
@@ -48,30 +455,76 @@ public abstract class AESMode {
     // Return: Void
     //
     public void printOutput() {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII), 1 << 16);
+        try {
+            printOutput(writer);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // -- Public --
+    //   Role: Write the final output with its title.
+    //   Args: writer - Destination, ideally buffered. It is not flushed.
+    // Return: Void
+    //
+    public void printOutput(Writer writer) throws IOException {
         // Print title with operation and mode.
-        System.out.printf("Output for %s (%s):\n",
+        writer.write(String.format("Output for %s (%s):\n",
                 getParams().isEncrypting() ? "encrypting" : "decrypting",
-                mode);
-
-        // Loop through printing each byte in hex.
-        for (Integer c : getOutput()) {
-            String text = Integer.toHexString(c).toUpperCase();
-            if (text.length() == 1) // All values should have 2 characters.
-                text = "0" + text;
-            System.out.print(text + " ");
-        }
+                mode));
+
+        // Every byte in hex, followed by a space.
+        HexCodec.write(getOutputBytes(), writer);
     }
 
     // -- Public --
-    //   Role: XOR two lists together, storing the result in the first list.
+    //   Role: XOR two lists together, storing the result in the first list. Kept for callers of
+    //         the List-based API, the work is done by addBytes().
     //   Args: input - Resultant list
     //         key - List to XOR with
     // Return: Void
     //
     public static void addLists(List<Integer> input, List<Integer> key) {
         int size = Math.min(input.size(), key.size());
+        byte[] bytes = AES.toBytes(input.subList(0, size));
+        addBytes(bytes, 0, AES.toBytes(key.subList(0, size)), 0, size);
         for (int i = 0; i < size; i++) {
-            input.set(i, input.get(i) ^ key.get(i));
+            input.set(i, bytes[i] & 0xFF);
+        }
+    }
+
+    // -- Public --
+    //   Role: XOR two byte ranges together, storing the result in the first range.
+    //   Args: input - Resultant array
+    //         inputOff - Offset of the range within input
+    //         key - Array to XOR with
+    //         keyOff - Offset of the range within key
+    //         length - Number of bytes to XOR
+    // Return: Void
+    //
+    public static void addBytes(byte[] input, int inputOff, byte[] key, int keyOff, int length) {
+        addBytes(input, inputOff, key, keyOff, input, inputOff, length);
+    }
+
+    // -- Public --
+    //   Role: XOR two byte ranges together into a third, eight bytes at a time through a long
+    //         view of the arrays, then byte by byte for the rest. The output may be the same
+    //         range of the same array as either input, but must not otherwise overlap them.
+    //   Args: a, aOff - First range and its offset.
+    //         b, bOff - Second range and its offset.
+    //         out, outOff - Array and offset to write the result to.
+    //         length - Number of bytes to XOR
+    // Return: Void
+    //
+    public static void addBytes(byte[] a, int aOff, byte[] b, int bOff, byte[] out, int outOff, int length) {
+        int i = 0;
+        for (; i <= length - 8; i += 8) {
+            LONGS.set(out, outOff + i, (long) LONGS.get(a, aOff + i) ^ (long) LONGS.get(b, bOff + i));
+        }
+        for (; i < length; i++) {
+            out[outOff + i] = (byte) (a[aOff + i] ^ b[bOff + i]);
         }
     }
 
@@ -93,11 +546,97 @@ public abstract class AESMode {
         this.params = params;
     }
 
+    public AESKey getKey() {
+        return key;
+    }
+
+    protected void setKey(AESKey key) {
+        this.key = key;
+    }
+
+    public boolean isTableDriven() {
+        return tableDriven;
+    }
+
+    public void setTableDriven(boolean tableDriven) {
+        this.tableDriven = tableDriven;
+    }
+
+    public boolean isBitsliced() {
+        return bitsliced;
+    }
+
+    public void setBitsliced(boolean bitsliced) {
+        this.bitsliced = bitsliced;
+    }
+
+    public BlockEngine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(BlockEngine engine) {
+        this.engine = engine;
+    }
+
+    // Name of the engine the mode's ciphers come from, as used by AESMetrics.
+    public String getEngineName() {
+        if (engine != null)
+            return engine.getName();
+        if (bitsliced)
+            return BlockEngine.BITSLICED.getName();
+        return tableDriven ? BlockEngine.TABLE.getName() : BlockEngine.REFERENCE.getName();
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     public List<Integer> getOutput() {
+        return AES.toList(output);
+    }
+
+    public byte[] getOutputBytes() {
         return output;
     }
 
-    protected void setOutput(List<Integer> output) {
+    protected void setOutput(byte[] output) {
         this.output = output;
     }
+
+    // -- Nested Types -- //
+
+    // Work done on the blocks from (inclusive) to (exclusive).
+    protected interface BlockRange {
+        void process(int from, int to);
+    }
+
+    // Splits a range of blocks in half until it is small enough to process directly.
+    private static class BlockTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BlockRange range;
+        private final int from;
+        private final int to;
+
+        BlockTask(BlockRange range, int from, int to) {
+            this.range = range;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                range.process(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BlockTask(range, from, middle), new BlockTask(range, middle, to));
+        }
+    }
 }
@@ -0,0 +1,77 @@
+/*
+AESOutputStream.java
+
+Description:
+    An output stream which encrypts or decrypts everything written to it with an AESMode
+    before passing it on to the underlying stream. Only a partial unit is ever held back,
+    so memory use does not grow with the amount of data. The stream must be closed to
+    process the final partial unit of a stream mode.
+ */
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class AESOutputStream extends FilterOutputStream {
+
+    // Largest amount of input handed to the mode at once.
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final AESMode mode;
+    private final byte[] buffer; // Output of the mode, reused for every write
+    private final byte[] single = new byte[1];
+    private boolean closed;
+
+    // -- Constructor --
+    //   Role: Wrap a stream.
+    //   Args: out - Stream to write the result to.
+    //         mode - Mode to run the data through, with a fresh stream state.
+    // Return: this
+    //
+    public AESOutputStream(OutputStream out, AESMode mode) {
+        super(out);
+        this.mode = mode;
+        this.buffer = new byte[CHUNK_SIZE + mode.getUnitSize()];
+        mode.reset();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+
+        while (len > 0) {
+            int chunk = Math.min(len, CHUNK_SIZE);
+            int written = mode.update(b, off, chunk, buffer, 0);
+            out.write(buffer, 0, written);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    // -- Public --
+    //   Role: Finish the stream, write the final output and close the underlying stream.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            out.write(mode.doFinal());
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            super.close();
+        }
+    }
+}
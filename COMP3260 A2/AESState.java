@@ -11,8 +11,17 @@ import java.util.List;
 
 public class AESState {
 
-    // The current state of AES.
-    private Integer[][] state;
+    // The current state of AES, stored column by column (index = col * 4 + row).
+    private int[] state;
+
+    // -- Constructor --
+    //   Role: Create an empty AESState to be filled with load().
+    //   Args: None
+    // Return: this
+    //
+    public AESState() {
+        state = new int[16];
+    }
 
     // -- Constructor --
     //   Role: Create AESState matrix.
@@ -20,78 +29,121 @@ public class AESState {
     // Return: this
     //
     public AESState (List<Integer> input) {
-        state = new Integer[4][4];
+        this();
         for (int i = 0; i < 16; i++) {
-            int x = i / 4;
-            int y = i % 4;
-            state[y][x] = input.get(i);
+            state[i] = input.get(i);
         }
     }
 
     // -- Public --
-    //   Role: XOR the state with a given key.
-    //   Args: key - value to XOR with.
+    //   Role: Load a 16 byte block into the state.
+    //   Args: in - Array holding the block.
+    //         offset - Offset of the block within in.
     // Return: Void
     //
-    public void addRoundKey(Integer[][] key) {
-        for (int row = 0; row < 4; row++) {
-            for (int col = 0; col < 4; col++) {
-                state[row][col] ^= key[row][col];
-            }
+    public void load(byte[] in, int offset) {
+        for (int i = 0; i < 16; i++) {
+            state[i] = in[offset + i] & 0xFF;
         }
     }
 
     // -- Public --
-    //   Role: Mix columns of state.
-    //   Args: None
+    //   Role: Store the state as a 16 byte block.
+    //   Args: out - Array to write the block to.
+    //         offset - Offset to write the block at.
     // Return: Void
     //
-    public void mixColumns() {
-        mix(MixBoxes.MIX_BOX);
+    public void store(byte[] out, int offset) {
+        for (int i = 0; i < 16; i++) {
+            out[offset + i] = (byte) state[i];
+        }
     }
 
     // -- Public --
-    //   Role: Inverse mix columns.
-    //   Args: None.
+    //   Role: XOR the state with a given round key.
+    //   Args: words - Key schedule of 32-bit words, one per column.
+    //         offset - Index of the first word of the round key.
     // Return: Void
     //
-    public void inverseMixColumns() {
-        mix(MixBoxes.INVERSE_MIX_BOX);
+    public void addRoundKey(int[] words, int offset) {
+        for (int col = 0; col < 4; col++) {
+            int word = words[offset + col];
+            state[col * 4] ^= word >>> 24;
+            state[col * 4 + 1] ^= (word >>> 16) & 0xFF;
+            state[col * 4 + 2] ^= (word >>> 8) & 0xFF;
+            state[col * 4 + 3] ^= word & 0xFF;
+        }
     }
 
-    // -- Private --
-    //   Role: Helper method for mixing
-    //   Args: matrix - The matrix to multiple state against.
+    // -- Public --
+    //   Role: Mix columns of state. Each output byte is a ^ t ^ 2(a ^ b), where t is the XOR of
+    //         the column and b the byte below a, which only needs multiplications by 2.
+    //   Args: None
     // Return: Void
     //
-    private void mix(Integer[][] matrix) {
-        Integer[][] clone = cloneState();
-
-        for (int row = 0; row < 4; row++) {
-            for (int col = 0; col < 4; col++) {
-                int value = 0;
-                value ^= MixBoxes.multiply(clone[0][col], matrix[row][0]);
-                value ^= MixBoxes.multiply(clone[1][col], matrix[row][1]);
-                value ^= MixBoxes.multiply(clone[2][col], matrix[row][2]);
-                value ^= MixBoxes.multiply(clone[3][col], matrix[row][3]);
-                state[row][col] = value;
-            }
+    public void mixColumns() {
+        for (int col = 0; col < 4; col++) {
+            int base = col * 4;
+            int a0 = state[base];
+            int a1 = state[base + 1];
+            int a2 = state[base + 2];
+            int a3 = state[base + 3];
+            int t = a0 ^ a1 ^ a2 ^ a3;
+
+            state[base] = a0 ^ t ^ MixBoxes.multiply(a0 ^ a1, 2);
+            state[base + 1] = a1 ^ t ^ MixBoxes.multiply(a1 ^ a2, 2);
+            state[base + 2] = a2 ^ t ^ MixBoxes.multiply(a2 ^ a3, 2);
+            state[base + 3] = a3 ^ t ^ MixBoxes.multiply(a3 ^ a0, 2);
         }
     }
 
+    // -- Public --
+    //   Role: Inverse mix columns. The inverse matrix is the forward one times
+    //         {05 00 04 00}, so rows 0 and 2 (and 1 and 3) are mixed with 4 times their
+    //         XOR before an ordinary mix columns.
+    //   Args: None.
+    // Return: Void
+    //
+    public void inverseMixColumns() {
+        for (int col = 0; col < 4; col++) {
+            int base = col * 4;
+            int u = MixBoxes.multiply(MixBoxes.multiply(state[base] ^ state[base + 2], 2), 2);
+            int v = MixBoxes.multiply(MixBoxes.multiply(state[base + 1] ^ state[base + 3], 2), 2);
+            state[base] ^= u;
+            state[base + 1] ^= v;
+            state[base + 2] ^= u;
+            state[base + 3] ^= v;
+        }
+        mixColumns();
+    }
+
     // -- Public --
     //   Role: Shifts rows to the left.
     //   Args: None
     // Return: Void
     //
     public void shiftRows() {
-        Integer[][] clone = cloneState();
-
-        for (int col = 0; col < 4; col++) {
-            state[1][col] = clone[1][ (col+1) % 4 ]; // One to the left
-            state[2][col] = clone[2][ (col+2) % 4 ]; // Two to the left
-            state[3][col] = clone[3][ (col+3) % 4 ]; // Three to the left
-        }
+        // One to the left
+        int temp = state[1];
+        state[1] = state[5];
+        state[5] = state[9];
+        state[9] = state[13];
+        state[13] = temp;
+
+        // Two to the left
+        temp = state[2];
+        state[2] = state[10];
+        state[10] = temp;
+        temp = state[6];
+        state[6] = state[14];
+        state[14] = temp;
+
+        // Three to the left
+        temp = state[15];
+        state[15] = state[11];
+        state[11] = state[7];
+        state[7] = state[3];
+        state[3] = temp;
     }
 
     // -- Public --
@@ -100,13 +152,27 @@ public class AESState {
     // Return: Void
     //
     public void inverseShiftRows() {
-        Integer[][] clone = cloneState();
-
-        for (int col = 0; col < 4; col++) {
-            state[1][col] = clone[1][ (col+3) % 4 ]; // One to the right
-            state[2][col] = clone[2][ (col+2) % 4 ]; // Two to the right
-            state[3][col] = clone[3][ (col+1) % 4 ]; // Three to the right
-        }
+        // One to the right
+        int temp = state[13];
+        state[13] = state[9];
+        state[9] = state[5];
+        state[5] = state[1];
+        state[1] = temp;
+
+        // Two to the right
+        temp = state[2];
+        state[2] = state[10];
+        state[10] = temp;
+        temp = state[6];
+        state[6] = state[14];
+        state[14] = temp;
+
+        // Three to the right
+        temp = state[3];
+        state[3] = state[7];
+        state[7] = state[11];
+        state[11] = state[15];
+        state[15] = temp;
     }
 
     // -- Public --
@@ -115,10 +181,8 @@ public class AESState {
     // Return: Void
     //
     public void substituteBytes() {
-        for (int row = 0; row < 4; row++) {
-            for (int col = 0; col < 4; col++) {
-                state[row][col] = AES.substitute(state[row][col]);
-            }
+        for (int i = 0; i < 16; i++) {
+            state[i] = AES.substitute(state[i]);
         }
     }
 
@@ -128,24 +192,9 @@ public class AESState {
     // Return: Void
     //
     public void inverseSubstituteBytes() {
-        for (int row = 0; row < 4; row++) {
-            for (int col = 0; col < 4; col++) {
-                state[row][col] = AES.inverseSubstitute(state[row][col]);
-            }
-        }
-    }
-
-    // -- Private --
-    //   Role: Performs a deep clone on state.
-    //   Args: None
-    // Return: Integer[][] - Cloned state.
-    //
-    private Integer[][] cloneState() {
-        Integer[][] clone = new Integer[4][4];
-        for (int row = 0; row < 4; row++) {
-            clone[row] = state[row].clone();
+        for (int i = 0; i < 16; i++) {
+            state[i] = AES.inverseSubstitute(state[i]);
         }
-        return clone;
     }
 
     // -- Public --
@@ -155,10 +204,8 @@ public class AESState {
     //
     public List<Integer> toList() {
         List<Integer> list = new ArrayList<>(16);
-        for (int col = 0; col < 4; col++) {
-            for (int row = 0; row < 4; row++) {
-                list.add(state[row][col]);
-            }
+        for (int i = 0; i < 16; i++) {
+            list.add(state[i]);
         }
         return list;
     }
@@ -0,0 +1,386 @@
+/*
+BatchCommand.java
+
+Description:
+    Runs many jobs in one JVM, so that startup and JIT warm up are paid once rather than
+    once per operation. A job is the six lines read from the console (see InputParameters.java),
+    and jobs follow one another, optionally separated by blank lines. Jobs run concurrently
+    on a pool of worker threads, and their outputs are written in the order the jobs were
+    read, each as printed for the console and followed by a new line.
+    With --batch, jobs are read from a file, or from standard input given "-".
+    With --serve, a daemon listens on a loopback port and each connection is a batch of its
+    own: the client writes jobs and reads back the output of each in turn, for as long as
+    the connection is open. Connections are handled on virtual threads where the JVM has
+    them, otherwise on a cached thread pool, and share the one pool of workers.
+    Metrics of the jobs are available through JMX from the start (see AESMetrics.java).
+
+    Usage: AESInterface --batch file|- [--workers n] [--engine auto|reference|table|bitsliced|jce]
+           AESInterface --serve port [--workers n] [--engine auto|reference|table|bitsliced|jce]
+    The engine measurements of --engine auto are kept between runs only in the file named by
+    -Daes.engine.cache=file (see EngineSelector.java).
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class BatchCommand implements AutoCloseable {
+
+    // Jobs read ahead of the output being written, per worker, bounding the memory held.
+    private static final int JOBS_PER_WORKER = 4;
+
+    private String batch; // File of jobs, "-" for standard input, or null when serving
+    private int port = -1; // Port to serve on, 0 for any free port, -1 when not serving
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private BlockEngine engine; // Null to calibrate
+
+    private ExecutorService pool; // Runs the jobs
+    private ServerSocket server;
+
+    // -- Constructor --
+    //   Role: Parse the command line arguments.
+    //   Args: args - Arguments given to AESInterface.
+    // Return: this
+    //
+    public BatchCommand(String[] args) {
+        String engineName = "auto";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--batch":
+                    batch = value(args, ++i);
+                    break;
+                case "--serve":
+                    port = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--workers":
+                    workers = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--engine":
+                    engineName = value(args, ++i);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        if ((batch == null) == (port < 0))
+            throw new IllegalArgumentException("One of --batch or --serve is required");
+        if (port > 65535)
+            throw new IllegalArgumentException("--serve takes a port between 0 and 65535");
+        if (workers < 1)
+            throw new IllegalArgumentException("--workers must be at least 1");
+
+        if (!engineName.equalsIgnoreCase("auto"))
+            engine = BlockEngine.forName(engineName);
+    }
+
+    // -- Public Static --
+    //   Role: Whether command line arguments ask for a batch or the daemon.
+    //   Args: args - Arguments given to AESInterface.
+    // Return: boolean
+    //
+    public static boolean isBatch(String[] args) {
+        for (String arg : args) {
+            if (arg.equals("--batch") || arg.equals("--serve"))
+                return true;
+        }
+        return false;
+    }
+
+    // -- Public --
+    //   Role: Run the batch, or serve until the process is stopped.
+    //   Args: None
+    // Return: Void
+    //
+    public void run() throws IOException {
+        if (engine == null) {
+            engine = EngineSelector.getSelected();
+            System.err.println(EngineSelector.report());
+        } else {
+            System.err.println("AES engine: " + engine.getName());
+        }
+        pool = Executors.newFixedThreadPool(workers);
+
+        // A batch or daemon may run for long enough to be watched, so register the metrics
+        // over JMX now rather than on the first job.
+        AESMetrics.registerMXBeans();
+
+        if (port >= 0) {
+            serve();
+            return;
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII), 1 << 16);
+        try {
+            if (batch.equals("-")) {
+                runJobs(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII), 1 << 16), writer);
+            } else {
+                try (BufferedReader reader = Files.newBufferedReader(Paths.get(batch), StandardCharsets.US_ASCII)) {
+                    runJobs(reader, writer);
+                }
+            }
+        } finally {
+            writer.flush();
+            close();
+        }
+    }
+
+    // -- Public --
+    //   Role: Accept connections on the loopback interface, running the jobs of each.
+    //         Returns once close() is called.
+    //   Args: None
+    // Return: Void
+    //
+    public void serve() throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        System.err.println("Serving on " + server.getLocalSocketAddress());
+
+        ExecutorService connections = newConnectionExecutor();
+        try {
+            while (!server.isClosed()) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (IOException e) {
+                    if (server.isClosed())
+                        break;
+                    throw e;
+                }
+                connections.execute(() -> serveConnection(socket));
+            }
+        } finally {
+            connections.shutdown();
+        }
+    }
+
+    // -- Public --
+    //   Role: Read jobs until the end of input, run them on the workers and write their
+    //         outputs in order. A job which cannot be parsed or processed writes the reason.
+    //   Args: reader - Source of the jobs.
+    //         writer - Destination of the outputs, flushed before waiting for more input.
+    // Return: Void
+    //
+    public void runJobs(BufferedReader reader, Writer writer) throws IOException {
+        Deque<Future<String>> outputs = new ArrayDeque<>();
+        String[] lines;
+
+        while ((lines = readJob(reader, outputs, writer)) != null) {
+            outputs.add(submit(lines));
+
+            // Write what has finished, and wait for the oldest job if too many are ahead.
+            while (!outputs.isEmpty() && (outputs.peek().isDone() || outputs.size() > workers * JOBS_PER_WORKER)) {
+                writer.write(await(outputs.poll()));
+            }
+        }
+        drain(outputs, writer);
+    }
+
+    // -- Public --
+    //   Role: Stop serving and stop the workers once their jobs are done.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    public void close() throws IOException {
+        if (server != null)
+            server.close();
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    // -- Private --
+    //   Role: Run the jobs of one connection until the client closes it.
+    //   Args: socket - Connection accepted.
+    // Return: Void
+    //
+    private void serveConnection(Socket socket) {
+        try (Socket connection = socket) {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), StandardCharsets.US_ASCII), 1 << 16);
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.US_ASCII), 1 << 16);
+            runJobs(reader, writer);
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+        }
+    }
+
+    // -- Private --
+    //   Role: Hand a job to the workers. A job which cannot be parsed fails straight away,
+    //         taking its place in the output like any other.
+    //   Args: lines - The six lines of the job.
+    // Return: Future<String> - Text to write for the job.
+    //
+    private Future<String> submit(String[] lines) {
+        InputParameters params;
+        try {
+            params = new InputParameters(lines);
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture("Input invalid: " + reason(e) + "\n");
+        }
+        return pool.submit(() -> runJob(params));
+    }
+
+    // -- Private --
+    //   Role: Run one job on a worker. Whatever goes wrong with the job is written in its place
+    //         in the output, so the jobs after it, and the connection it came on, carry on.
+    //   Args: params - Parameters of the job.
+    // Return: String - Output as printed for the console, or why the job could not be processed.
+    //
+    private String runJob(InputParameters params) throws IOException {
+        StringWriter text = new StringWriter();
+        try {
+            AESMode mode = AESInterface.createMode(params);
+            mode.setEngine(engine);
+            mode.run();
+            mode.printOutput(text);
+        } catch (RuntimeException e) {
+            return "Could not process input: " + reason(e) + "\n";
+        }
+        text.write('\n');
+        return text.toString();
+    }
+
+    // -- Private Static --
+    //   Role: Describe why a job failed.
+    //   Args: e - Exception the job failed with.
+    // Return: String - Its message, or its type if it has none.
+    //
+    private static String reason(RuntimeException e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    // -- Private Static --
+    //   Role: Write the outputs of every job still outstanding, then flush.
+    //   Args: outputs - Futures of the jobs, in order.
+    //         writer - Destination of the outputs.
+    // Return: Void
+    //
+    private static void drain(Deque<Future<String>> outputs, Writer writer) throws IOException {
+        while (!outputs.isEmpty()) {
+            writer.write(await(outputs.poll()));
+        }
+        writer.flush();
+    }
+
+    // -- Private Static --
+    //   Role: Wait for the text of a job.
+    //   Args: output - Future of the job.
+    // Return: String
+    //
+    private static String await(Future<String> output) throws IOException {
+        try {
+            return output.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Job failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a job", e);
+        }
+    }
+
+    // -- Private Static --
+    //   Role: Read the six lines of the next job, skipping blank lines before it.
+    //   Args: reader - Source of the jobs.
+    //         outputs, writer - Jobs outstanding and their destination, see nextLine.
+    // Return: String[] - The lines, or null at the end of input. A job cut short by the
+    //         end of input is returned short, and fails to parse.
+    //
+    private static String[] readJob(BufferedReader reader, Deque<Future<String>> outputs, Writer writer)
+            throws IOException {
+        String line;
+        do {
+            line = nextLine(reader, outputs, writer);
+            if (line == null)
+                return null;
+        } while (line.trim().isEmpty());
+
+        String[] lines = new String[6];
+        lines[0] = line;
+        for (int i = 1; i < lines.length; i++) {
+            lines[i] = nextLine(reader, outputs, writer);
+            if (lines[i] == null)
+                return Arrays.copyOf(lines, i);
+        }
+        return lines;
+    }
+
+    // -- Private Static --
+    //   Role: Read a line. If that would block, first finish the jobs read so far, as a
+    //         client may be waiting on their output before it sends any more.
+    //   Args: reader - Source of the jobs.
+    //         outputs - Futures of the jobs outstanding, in order.
+    //         writer - Destination of the outputs.
+    // Return: String - The line, or null at the end of input.
+    //
+    private static String nextLine(BufferedReader reader, Deque<Future<String>> outputs, Writer writer)
+            throws IOException {
+        if (!reader.ready())
+            drain(outputs, writer);
+        return reader.readLine();
+    }
+
+    // -- Private Static --
+    //   Role: Executor running a task per connection: a virtual thread each where the JVM has
+    //         them, found by reflection so the code still builds and runs on older JVMs.
+    //   Args: None
+    // Return: ExecutorService
+    //
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "aes-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // -- Private Static --
+    //   Role: Get the value following an option.
+    //   Args: args - Command line arguments.
+    //         i - Index of the value.
+    // Return: String
+    //
+    private static String value(String[] args, int i) {
+        if (i >= args.length)
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        return args[i];
+    }
+
+    // -- Getters -- //
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public BlockEngine getEngine() {
+        return engine;
+    }
+
+    // Port being served on, once serve() has bound it.
+    public int getLocalPort() {
+        return server == null ? -1 : server.getLocalPort();
+    }
+}
@@ -0,0 +1,377 @@
+/*
+Benchmark.java
+
+Description:
+    Micro benchmark suite for the AES core and every mode of operation, used to check
+    performance changes against. Each benchmark is warmed up, then measured over several
+    timed iterations, reporting the mean and standard deviation. Results are either latency
+    (ns per operation) or throughput (MB/s), along with the bytes allocated per operation
+    by the measuring thread, which is what a GC profiler reports as the normalised
+    allocation rate.
+
+    Usage: java Benchmark [--sizes 16,1024,...] [--warmup ms] [--time ms] [--iterations n]
+                          [--filter text]
+    Payload sizes accept K, M and G suffixes, up to 1G.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class Benchmark {
+
+    private static final String[] MODE_NAMES = {"ECB", "CFB", "CBC", "OFB", "CTR", "GCM", "XTS"};
+
+    // Each variant adds to the one before it, jce replaces the engine of the parallel variants.
+    private static final String[] VARIANTS = {"reference", "table", "parallel", "bitsliced", "jce"};
+
+    // Results are written here so the JIT cannot remove the work being measured.
+    private static volatile Object sink;
+
+    private long[] sizes = {16, 1024, 64 * 1024, 1024 * 1024, 16 * 1024 * 1024};
+    private long warmupMillis = 1000;
+    private long iterationMillis = 1000;
+    private int iterations = 5;
+    private String filter = "";
+
+    // -- Main --
+    //   Role: Parse options and run every benchmark matching the filter.
+    //   Args: args - Command line options.
+    // Return: Void
+    //
+    public static void main(String[] args) {
+        Benchmark benchmark = new Benchmark();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes":
+                    String[] values = args[++i].split(",");
+                    benchmark.sizes = new long[values.length];
+                    for (int j = 0; j < values.length; j++) {
+                        benchmark.sizes[j] = parseSize(values[j]);
+                    }
+                    break;
+                case "--warmup":
+                    benchmark.warmupMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--time":
+                    benchmark.iterationMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--iterations":
+                    benchmark.iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--filter":
+                    benchmark.filter = args[++i];
+                    break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        benchmark.runAll();
+    }
+
+    // -- Public --
+    //   Role: Run the core benchmarks followed by the mode benchmarks.
+    //   Args: None
+    // Return: Void
+    //
+    public void runAll() {
+        System.out.printf("%-40s %16s %12s %14s%n", "Benchmark", "Score", "Error", "Alloc B/op");
+
+        Random random = new Random(0);
+        byte[] key = new byte[AES.BLOCK_SIZE];
+        byte[] block = new byte[AES.BLOCK_SIZE];
+        random.nextBytes(key);
+        random.nextBytes(block);
+        AESKey expanded = new AESKey(key);
+
+        // Single block latency of each implementation.
+        AES reference = new AES(expanded);
+        AES table = new TableAES(expanded);
+        latency("block.encrypt.reference", () -> reference.encryptBlock(block, 0, block, 0));
+        latency("block.decrypt.reference", () -> reference.decryptBlock(block, 0, block, 0));
+        latency("block.encrypt.table", () -> table.encryptBlock(block, 0, block, 0));
+        latency("block.decrypt.table", () -> table.decryptBlock(block, 0, block, 0));
+
+        // The same for the longer keys, which only add rounds.
+        for (int keyLength : new int[]{24, 32}) {
+            byte[] longKey = new byte[keyLength];
+            random.nextBytes(longKey);
+            AES wide = new TableAES(new AESKey(longKey));
+            latency("block.encrypt.table.aes" + keyLength * 8, () -> wide.encryptBlock(block, 0, block, 0));
+            latency("block.decrypt.table.aes" + keyLength * 8, () -> wide.decryptBlock(block, 0, block, 0));
+        }
+
+        // Multi-block throughput, a full pass of the bitsliced implementation.
+        AES sliced = new BitslicedAES(expanded);
+        byte[] blocks = new byte[BitslicedAES.LANES * AES.BLOCK_SIZE];
+        random.nextBytes(blocks);
+        throughput("blocks.encrypt.table", blocks.length,
+                () -> table.encryptBlocks(blocks, 0, blocks, 0, BitslicedAES.LANES));
+        throughput("blocks.encrypt.bitsliced", blocks.length,
+                () -> sliced.encryptBlocks(blocks, 0, blocks, 0, BitslicedAES.LANES));
+        throughput("blocks.decrypt.bitsliced", blocks.length,
+                () -> sliced.decryptBlocks(blocks, 0, blocks, 0, BitslicedAES.LANES));
+        AES jce = new JCEAES(expanded);
+        throughput("blocks.encrypt.jce", blocks.length,
+                () -> jce.encryptBlocks(blocks, 0, blocks, 0, BitslicedAES.LANES));
+        throughput("blocks.decrypt.jce", blocks.length,
+                () -> jce.decryptBlocks(blocks, 0, blocks, 0, BitslicedAES.LANES));
+
+        // CFB-s streaming for the segment sizes in use, each segment is a block encryption.
+        byte[] stream = new byte[4096];
+        random.nextBytes(stream);
+        for (int bits : new int[]{1, 8, 128}) {
+            CFBCipher cfb = new CFBCipher(new TableAES(expanded), block, bits, true);
+            throughput("cfb.segment." + bits, stream.length,
+                    () -> cfb.update(stream, 0, stream.length, stream, 0));
+        }
+
+        // OFB keystream generated on a producer thread, the consumer only XORs.
+        try (OFBKeystream keystream = new OFBKeystream(new TableAES(expanded), block, OFB.PREFETCH_BLOCKS)) {
+            throughput("ofb.keystream.xor", stream.length,
+                    () -> keystream.xor(stream, 0, stream, 0, stream.length));
+        }
+
+        // The XOR kernel alone, as used to apply keystream and chain blocks in every mode.
+        byte[] mask = new byte[stream.length];
+        random.nextBytes(mask);
+        throughput("xor.bytes", stream.length, () -> AESMode.addBytes(stream, 0, mask, 0, stream.length));
+
+        // Many small CBC messages, one at a time and through MultiCBC.
+        List<InputParameters> messages = new ArrayList<>();
+        for (int i = 0; i < 1024; i++) {
+            byte[] messageIV = new byte[AES.BLOCK_SIZE];
+            random.nextBytes(messageIV);
+            messages.add(new InputParameters(true, 2, 0, Arrays.copyOf(stream, 64), key, messageIV));
+        }
+        for (BlockEngine engine : new BlockEngine[]{BlockEngine.TABLE, BlockEngine.JCE}) {
+            throughput("cbc.messages.single." + engine.getName() + ".64B", messages.size() * 64L, () -> {
+                for (InputParameters message : messages) {
+                    CBC cbc = new CBC(message);
+                    cbc.setEngine(engine);
+                    cbc.run();
+                    sink = cbc.getOutputBytes();
+                }
+            });
+        }
+        for (BlockEngine engine : new BlockEngine[]{BlockEngine.TABLE, BlockEngine.BITSLICED, BlockEngine.JCE}) {
+            MultiCBC multi = new MultiCBC(messages, expanded);
+            multi.setEngine(engine);
+            throughput("cbc.messages.multi." + engine.getName() + ".64B", messages.size() * 64L,
+                    () -> sink = multi.run());
+        }
+
+        // CTR over a 64 KiB buffer where it sits, against run() on a copy of it.
+        byte[] payload = new byte[64 * 1024];
+        random.nextBytes(payload);
+        AESMode inPlace = new CTR(new InputParameters(true, 4, 0, payload, key, block));
+        inPlace.setTableDriven(true);
+        ByteBuffer heap = ByteBuffer.wrap(payload.clone());
+        ByteBuffer direct = ByteBuffer.allocateDirect(payload.length).put(payload);
+        throughput("inplace.ctr.run.64K", payload.length, () -> {
+            inPlace.run();
+            sink = inPlace.getOutputBytes();
+        });
+        throughput("inplace.ctr.heap.64K", payload.length, () -> inPlace.process(heap.clear()));
+        throughput("inplace.ctr.direct.64K", payload.length, () -> inPlace.process(direct.clear()));
+
+        // Key expansion, with and without the cache.
+        latency("key.expand", () -> sink = new RoundKeys(key));
+        latency("key.cached", () -> sink = AESKey.of(key));
+
+        // Individual round steps of the reference implementation.
+        AESState state = new AESState();
+        state.load(block, 0);
+        latency("state.mixColumns", state::mixColumns);
+        latency("state.inverseMixColumns", state::inverseMixColumns);
+        latency("state.substituteBytes", state::substituteBytes);
+        latency("state.shiftRows", state::shiftRows);
+
+        // Throughput of every mode, direction and implementation across payload sizes.
+        byte[] iv = new byte[AES.BLOCK_SIZE];
+        random.nextBytes(iv);
+        byte[] xtsKey = new byte[2 * AES.BLOCK_SIZE]; // XTS takes a data key and a tweak key
+        random.nextBytes(xtsKey);
+        for (long size : sizes) {
+            byte[] input = new byte[(int) size];
+            random.nextBytes(input);
+            for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+                byte[] modeKey = MODE_NAMES[mode].equals("XTS") ? xtsKey : key;
+                for (boolean encrypting : new boolean[]{true, false}) {
+                    byte[] data = input;
+                    if (!encrypting && MODE_NAMES[mode].equals("GCM")) {
+                        // Decryption checks the tag, so it needs genuine cipher-text.
+                        AESMode sealer = AESInterface.createMode(new InputParameters(true, mode, 0, input, modeKey, iv));
+                        sealer.run();
+                        data = sealer.getOutputBytes();
+                    }
+                    InputParameters params = new InputParameters(encrypting, mode, AES.BLOCK_SIZE, data, modeKey, iv);
+                    for (int variant = 0; variant < VARIANTS.length; variant++) {
+                        boolean tableDriven = variant > 0;
+                        boolean parallel = variant > 1;
+                        boolean bitsliced = variant > 2;
+                        BlockEngine engine = variant > 3 ? BlockEngine.JCE : null;
+                        String name = String.format("mode.%s.%s.%s.%s", MODE_NAMES[mode],
+                                encrypting ? "encrypt" : "decrypt", VARIANTS[variant], formatSize(size));
+                        throughput(name, size, () -> {
+                            AESMode aesMode = AESInterface.createMode(params);
+                            aesMode.setTableDriven(tableDriven);
+                            aesMode.setParallel(parallel);
+                            aesMode.setBitsliced(bitsliced);
+                            aesMode.setEngine(engine);
+                            aesMode.run();
+                            sink = aesMode.getOutputBytes();
+                        });
+                    }
+                }
+            }
+        }
+    }
+
+    // -- Private --
+    //   Role: Measure and report the time per operation.
+    //   Args: name - Benchmark name.
+    //         operation - Work to measure.
+    // Return: Void
+    //
+    private void latency(String name, Runnable operation) {
+        if (!name.contains(filter))
+            return;
+        Result result = measure(operation);
+        System.out.printf("%-40s %11.1f ns/op %12.1f %14.1f%n", name,
+                result.mean, result.error, result.allocated);
+    }
+
+    // -- Private --
+    //   Role: Measure and report the data rate.
+    //   Args: name - Benchmark name.
+    //         bytes - Bytes processed by each operation.
+    //         operation - Work to measure.
+    // Return: Void
+    //
+    private void throughput(String name, long bytes, Runnable operation) {
+        if (!name.contains(filter))
+            return;
+        Result result = measure(operation);
+        double mean = bytes * 1000.0 / result.mean; // MB/s from ns/op
+        double error = mean * result.error / result.mean;
+        System.out.printf("%-40s %12.1f MB/s %12.1f %14.1f%n", name, mean, error, result.allocated);
+    }
+
+    // -- Private --
+    //   Role: Warm up, then time several iterations of repeated calls.
+    //   Args: operation - Work to measure.
+    // Return: Result - Mean and error in ns per operation, and bytes allocated per operation.
+    //
+    private Result measure(Runnable operation) {
+        // Warm up so the JIT has compiled the operation.
+        runFor(operation, warmupMillis);
+
+        List<Double> samples = new ArrayList<>(iterations);
+        long allocated = 0;
+        long operations = 0;
+        for (int i = 0; i < iterations; i++) {
+            long before = allocatedBytes();
+            long start = System.nanoTime();
+            long count = runFor(operation, iterationMillis);
+            long elapsed = System.nanoTime() - start;
+            allocated += allocatedBytes() - before;
+            operations += count;
+            samples.add((double) elapsed / count);
+        }
+
+        double mean = 0;
+        for (double sample : samples) {
+            mean += sample;
+        }
+        mean /= samples.size();
+
+        double variance = 0;
+        for (double sample : samples) {
+            variance += (sample - mean) * (sample - mean);
+        }
+        double error = samples.size() > 1 ? Math.sqrt(variance / (samples.size() - 1)) : 0;
+
+        return new Result(mean, error, (double) allocated / operations);
+    }
+
+    // -- Private Static --
+    //   Role: Call an operation repeatedly for a period of time, at least once.
+    //   Args: operation - Work to run.
+    //         millis - Length of time.
+    // Return: long - Number of calls.
+    //
+    private static long runFor(Runnable operation, long millis) {
+        long end = System.nanoTime() + millis * 1000000;
+        long count = 0;
+        do {
+            operation.run();
+            count++;
+        } while (System.nanoTime() < end);
+        return count;
+    }
+
+    // -- Private Static --
+    //   Role: Bytes allocated so far by the current thread, 0 if the JVM cannot tell.
+    //   Args: None
+    // Return: long
+    //
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+
+    // -- Private Static --
+    //   Role: Parse a size such as 64K, 16M or 1G.
+    //   Args: text - Size to parse.
+    // Return: long
+    //
+    private static long parseSize(String text) {
+        text = text.trim().toUpperCase();
+        long multiplier = 1;
+        if (text.endsWith("K"))
+            multiplier = 1024;
+        else if (text.endsWith("M"))
+            multiplier = 1024 * 1024;
+        else if (text.endsWith("G"))
+            multiplier = 1024 * 1024 * 1024;
+        if (multiplier > 1)
+            text = text.substring(0, text.length() - 1);
+        return Long.parseLong(text) * multiplier;
+    }
+
+    // -- Private Static --
+    //   Role: Format a size with the largest exact suffix.
+    //   Args: size - Size in bytes.
+    // Return: String
+    //
+    private static String formatSize(long size) {
+        if (size >= 1024 * 1024 * 1024 && size % (1024 * 1024 * 1024) == 0)
+            return size / (1024 * 1024 * 1024) + "G";
+        if (size >= 1024 * 1024 && size % (1024 * 1024) == 0)
+            return size / (1024 * 1024) + "M";
+        if (size >= 1024 && size % 1024 == 0)
+            return size / 1024 + "K";
+        return size + "B";
+    }
+
+    // Measurement of a single benchmark.
+    private static class Result {
+
+        final double mean; // ns per operation
+        final double error; // Standard deviation across iterations
+        final double allocated; // Bytes per operation
+
+        Result(double mean, double error, double allocated) {
+            this.mean = mean;
+            this.error = error;
+            this.allocated = allocated;
+        }
+    }
+}
@@ -0,0 +1,484 @@
+/*
+BitslicedAES.java
+
+Description:
+    Bitsliced, constant time implementation of the AES block cipher which processes up to 64
+    independent blocks per pass. Bit b of byte p of every block is packed into a single long
+    (one bit per block), so the state is 128 longs. SubBytes is computed as a Boolean circuit
+    (the 113 gate S-box of Boyar and Peralta), so no memory access depends on the data.
+    ShiftRows is a fixed permutation of the longs and MixColumns is XORs.
+    Single blocks are supported, but cost as much as a full pass, so this is meant for the
+    multi-block entry points.
+ */
+
+public class BitslicedAES extends AES {
+
+    // Number of blocks processed in a single pass.
+    public static final int LANES = 64;
+
+    // Byte position each position takes its value from in ShiftRows and its inverse.
+    private static final int[] SHIFT_ROWS = new int[16];
+    private static final int[] INVERSE_SHIFT_ROWS = new int[16];
+
+    static {
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                SHIFT_ROWS[col * 4 + row] = ((col + row) % 4) * 4 + row;
+                INVERSE_SHIFT_ROWS[col * 4 + row] = ((col + 4 - row) % 4) * 4 + row;
+            }
+        }
+    }
+
+    private final int rounds;
+    private final long[] roundKeys; // Every key bit broadcast to all lanes, 128 longs per round
+
+    // Scratch space, reused for every pass.
+    private long[] state = new long[128];
+    private long[] temp = new long[128];
+    private final long[] planes = new long[8];
+    private final long[] u = new long[8];
+    private final long[] v = new long[8];
+    private final long[] column = new long[32];
+
+    // -- Constructor --
+    //   Role: Create a bitsliced block cipher from an expanded key.
+    //         An instance must not be shared between threads.
+    //   Args: key - Expanded key.
+    // Return: this
+    //
+    public BitslicedAES(AESKey key) {
+        super(key);
+        int[] words = key.getWords();
+        rounds = words.length / 4 - 1;
+        roundKeys = new long[(rounds + 1) * 128];
+
+        for (int round = 0; round <= rounds; round++) {
+            for (int p = 0; p < 16; p++) {
+                int value = (words[round * 4 + p / 4] >>> (24 - 8 * (p % 4))) & 0xFF;
+                for (int bit = 0; bit < 8; bit++) {
+                    roundKeys[round * 128 + p * 8 + bit] = -((value >>> bit) & 1L);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        encryptBlocks(in, inOff, out, outOff, 1);
+    }
+
+    @Override
+    public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        decryptBlocks(in, inOff, out, outOff, 1);
+    }
+
+    // -- Public --
+    //   Role: Encrypt consecutive blocks, up to 64 at a time. Input and output may overlap exactly.
+    //   Args: in - Array holding the blocks to encrypt.
+    //         inOff - Offset of the first block.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         blocks - Number of blocks.
+    // Return: Void
+    //
+    @Override
+    public void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        for (int done = 0; done < blocks; done += LANES) {
+            int count = Math.min(LANES, blocks - done);
+            int offset = done * AES.BLOCK_SIZE;
+            pack(in, inOff + offset, count);
+
+            addRoundKey(0);
+            for (int round = 1; round < rounds; round++) {
+                substituteShift(SHIFT_ROWS, false);
+                mixColumns();
+                addRoundKey(round);
+            }
+            substituteShift(SHIFT_ROWS, false);
+            addRoundKey(rounds);
+
+            unpack(out, outOff + offset, count);
+        }
+    }
+
+    // -- Public --
+    //   Role: Decrypt consecutive blocks, up to 64 at a time. Input and output may overlap exactly.
+    //   Args: in - Array holding the blocks to decrypt.
+    //         inOff - Offset of the first block.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         blocks - Number of blocks.
+    // Return: Void
+    //
+    @Override
+    public void decryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        for (int done = 0; done < blocks; done += LANES) {
+            int count = Math.min(LANES, blocks - done);
+            int offset = done * AES.BLOCK_SIZE;
+            pack(in, inOff + offset, count);
+
+            addRoundKey(rounds);
+            for (int round = rounds - 1; round > 0; round--) {
+                substituteShift(INVERSE_SHIFT_ROWS, true);
+                addRoundKey(round);
+                inverseMixColumns();
+            }
+            substituteShift(INVERSE_SHIFT_ROWS, true);
+            addRoundKey(0);
+
+            unpack(out, outOff + offset, count);
+        }
+    }
+
+    // -- Private --
+    //   Role: Transpose blocks into the bitsliced state. Unused lanes are zero.
+    //   Args: in - Array holding the blocks.
+    //         offset - Offset of the first block.
+    //         count - Number of blocks, at most 64.
+    // Return: Void
+    //
+    private void pack(byte[] in, int offset, int count) {
+        for (int p = 0; p < 16; p++) {
+            for (int bit = 0; bit < 8; bit++) {
+                state[p * 8 + bit] = 0;
+            }
+            for (int group = 0; group * 8 < count; group++) {
+                // Byte p of eight blocks as the rows of an 8x8 bit matrix.
+                long rows = 0;
+                for (int j = 0; j < 8 && group * 8 + j < count; j++) {
+                    rows |= (in[offset + (group * 8 + j) * AES.BLOCK_SIZE + p] & 0xFFL) << (8 * j);
+                }
+
+                // After transposing, byte b holds bit b of each of the eight blocks.
+                long bits = transpose(rows);
+                for (int bit = 0; bit < 8; bit++) {
+                    state[p * 8 + bit] |= ((bits >>> (8 * bit)) & 0xFFL) << (8 * group);
+                }
+            }
+        }
+    }
+
+    // -- Private --
+    //   Role: Transpose the bitsliced state back into blocks.
+    //   Args: out - Array to write the blocks to.
+    //         offset - Offset of the first block.
+    //         count - Number of blocks, at most 64.
+    // Return: Void
+    //
+    private void unpack(byte[] out, int offset, int count) {
+        for (int p = 0; p < 16; p++) {
+            for (int group = 0; group * 8 < count; group++) {
+                long bits = 0;
+                for (int bit = 0; bit < 8; bit++) {
+                    bits |= ((state[p * 8 + bit] >>> (8 * group)) & 0xFFL) << (8 * bit);
+                }
+
+                long rows = transpose(bits);
+                for (int j = 0; j < 8 && group * 8 + j < count; j++) {
+                    out[offset + (group * 8 + j) * AES.BLOCK_SIZE + p] = (byte) (rows >>> (8 * j));
+                }
+            }
+        }
+    }
+
+    // -- Private Static --
+    //   Role: Transpose an 8x8 bit matrix held one row per byte.
+    //   Args: x - Matrix to transpose.
+    // Return: long
+    //
+    private static long transpose(long x) {
+        long t = (x ^ (x >>> 7)) & 0x00AA00AA00AA00AAL;
+        x = x ^ t ^ (t << 7);
+        t = (x ^ (x >>> 14)) & 0x0000CCCC0000CCCCL;
+        x = x ^ t ^ (t << 14);
+        t = (x ^ (x >>> 28)) & 0x00000000F0F0F0F0L;
+        return x ^ t ^ (t << 28);
+    }
+
+    // -- Private --
+    //   Role: XOR the state with a round key.
+    //   Args: round - Round number.
+    // Return: Void
+    //
+    private void addRoundKey(int round) {
+        int base = round * 128;
+        for (int i = 0; i < 128; i++) {
+            state[i] ^= roundKeys[base + i];
+        }
+    }
+
+    // -- Private --
+    //   Role: Substitute every byte while moving it to its shifted position.
+    //   Args: shift - Position each byte is taken from.
+    //         inverse - Whether to use the inverse S-box.
+    // Return: Void
+    //
+    private void substituteShift(int[] shift, boolean inverse) {
+        for (int p = 0; p < 16; p++) {
+            if (inverse)
+                inverseSubstitute(state, shift[p] * 8, temp, p * 8);
+            else
+                substitute(state, shift[p] * 8, temp, p * 8);
+        }
+        long[] swap = state;
+        state = temp;
+        temp = swap;
+    }
+
+    // -- Private Static --
+    //   Role: S-box as the 113 gate circuit of Boyar and Peralta: a linear layer, inversion in
+    //         GF(2^8) through its subfields, then a linear layer which includes the affine transform.
+    //   Args: in - Array holding the eight bit planes of a byte.
+    //         inOff - Offset of bit 0.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write bit 0 at.
+    // Return: Void
+    //
+    private static void substitute(long[] in, int inOff, long[] out, int outOff) {
+        long x0 = in[inOff + 7];
+        long x1 = in[inOff + 6];
+        long x2 = in[inOff + 5];
+        long x3 = in[inOff + 4];
+        long x4 = in[inOff + 3];
+        long x5 = in[inOff + 2];
+        long x6 = in[inOff + 1];
+        long x7 = in[inOff];
+
+        // Top linear layer.
+        long y14 = x3 ^ x5;
+        long y13 = x0 ^ x6;
+        long y9 = x0 ^ x3;
+        long y8 = x0 ^ x5;
+        long t0 = x1 ^ x2;
+        long y1 = t0 ^ x7;
+        long y4 = y1 ^ x3;
+        long y12 = y13 ^ y14;
+        long y2 = y1 ^ x0;
+        long y5 = y1 ^ x6;
+        long y3 = y5 ^ y8;
+        long t1 = x4 ^ y12;
+        long y15 = t1 ^ x5;
+        long y20 = t1 ^ x1;
+        long y6 = y15 ^ x7;
+        long y10 = y15 ^ t0;
+        long y11 = y20 ^ y9;
+        long y7 = x7 ^ y11;
+        long y17 = y10 ^ y11;
+        long y19 = y10 ^ y8;
+        long y16 = t0 ^ y11;
+        long y21 = y13 ^ y16;
+        long y18 = x0 ^ y16;
+
+        // Non-linear section, the inversion.
+        long t2 = y12 & y15;
+        long t3 = y3 & y6;
+        long t4 = t3 ^ t2;
+        long t5 = y4 & x7;
+        long t6 = t5 ^ t2;
+        long t7 = y13 & y16;
+        long t8 = y5 & y1;
+        long t9 = t8 ^ t7;
+        long t10 = y2 & y7;
+        long t11 = t10 ^ t7;
+        long t12 = y9 & y11;
+        long t13 = y14 & y17;
+        long t14 = t13 ^ t12;
+        long t15 = y8 & y10;
+        long t16 = t15 ^ t12;
+        long t17 = t4 ^ t14;
+        long t18 = t6 ^ t16;
+        long t19 = t9 ^ t14;
+        long t20 = t11 ^ t16;
+        long t21 = t17 ^ y20;
+        long t22 = t18 ^ y19;
+        long t23 = t19 ^ y21;
+        long t24 = t20 ^ y18;
+        long t25 = t21 ^ t22;
+        long t26 = t21 & t23;
+        long t27 = t24 ^ t26;
+        long t28 = t25 & t27;
+        long t29 = t28 ^ t22;
+        long t30 = t23 ^ t24;
+        long t31 = t22 ^ t26;
+        long t32 = t31 & t30;
+        long t33 = t32 ^ t24;
+        long t34 = t23 ^ t33;
+        long t35 = t27 ^ t33;
+        long t36 = t24 & t35;
+        long t37 = t36 ^ t34;
+        long t38 = t27 ^ t36;
+        long t39 = t29 & t38;
+        long t40 = t25 ^ t39;
+        long t41 = t40 ^ t37;
+        long t42 = t29 ^ t33;
+        long t43 = t29 ^ t40;
+        long t44 = t33 ^ t37;
+        long t45 = t42 ^ t41;
+        long z0 = t44 & y15;
+        long z1 = t37 & y6;
+        long z2 = t33 & x7;
+        long z3 = t43 & y16;
+        long z4 = t40 & y1;
+        long z5 = t29 & y7;
+        long z6 = t42 & y11;
+        long z7 = t45 & y17;
+        long z8 = t41 & y10;
+        long z9 = t44 & y12;
+        long z10 = t37 & y3;
+        long z11 = t33 & y4;
+        long z12 = t43 & y13;
+        long z13 = t40 & y5;
+        long z14 = t29 & y2;
+        long z15 = t42 & y9;
+        long z16 = t45 & y14;
+        long z17 = t41 & y8;
+
+        // Bottom linear layer.
+        long t46 = z15 ^ z16;
+        long t47 = z10 ^ z11;
+        long t48 = z5 ^ z13;
+        long t49 = z9 ^ z10;
+        long t50 = z2 ^ z12;
+        long t51 = z2 ^ z5;
+        long t52 = z7 ^ z8;
+        long t53 = z0 ^ z3;
+        long t54 = z6 ^ z7;
+        long t55 = z16 ^ z17;
+        long t56 = z12 ^ t48;
+        long t57 = t50 ^ t53;
+        long t58 = z4 ^ t46;
+        long t59 = z3 ^ t54;
+        long t60 = t46 ^ t57;
+        long t61 = z14 ^ t57;
+        long t62 = t52 ^ t58;
+        long t63 = t49 ^ t58;
+        long t64 = z4 ^ t59;
+        long t65 = t61 ^ t62;
+        long t66 = z1 ^ t63;
+        long s0 = t59 ^ t63;
+        long s6 = t56 ^ ~t62;
+        long s7 = t48 ^ ~t60;
+        long t67 = t64 ^ t65;
+        long s3 = t53 ^ t66;
+        long s4 = t51 ^ t66;
+        long s5 = t47 ^ t65;
+        long s1 = t64 ^ ~s3;
+        long s2 = t55 ^ ~t67;
+
+        out[outOff + 7] = s0;
+        out[outOff + 6] = s1;
+        out[outOff + 5] = s2;
+        out[outOff + 4] = s3;
+        out[outOff + 3] = s4;
+        out[outOff + 2] = s5;
+        out[outOff + 1] = s6;
+        out[outOff] = s7;
+    }
+
+    // -- Private --
+    //   Role: Inverse S-box. The S-box is A(I(x)) for the affine transform A and inversion I, so
+    //         its inverse I(A'(x)) is A'(S(A'(x))), with A' the inverse affine transform.
+    //   Args: in - Array holding the eight bit planes of a byte.
+    //         inOff - Offset of bit 0.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write bit 0 at.
+    // Return: Void
+    //
+    private void inverseSubstitute(long[] in, int inOff, long[] out, int outOff) {
+        long[] b = planes;
+        inverseAffine(in, inOff, out, outOff);
+        substitute(out, outOff, b, 0);
+        inverseAffine(b, 0, out, outOff);
+    }
+
+    // -- Private Static --
+    //   Role: Inverse of the affine transform of the S-box.
+    //   Args: in - Array holding the eight bit planes of a byte.
+    //         inOff - Offset of bit 0.
+    //         out - Array to write the result to, must not overlap the input.
+    //         outOff - Offset to write bit 0 at.
+    // Return: Void
+    //
+    private static void inverseAffine(long[] in, int inOff, long[] out, int outOff) {
+        for (int i = 0; i < 8; i++) {
+            out[outOff + i] = in[inOff + ((i + 7) & 7)] ^ in[inOff + ((i + 5) & 7)] ^ in[inOff + ((i + 2) & 7)];
+        }
+
+        // XOR with the constant 0x05.
+        out[outOff] = ~out[outOff];
+        out[outOff + 2] = ~out[outOff + 2];
+    }
+
+    // -- Private --
+    //   Role: Mix every column: 2a0 + 3a1 + a2 + a3, rotated for each row.
+    //   Args: None
+    // Return: Void
+    //
+    private void mixColumns() {
+        long[] c = column;
+        for (int col = 0; col < 4; col++) {
+            int base = col * 32;
+            System.arraycopy(state, base, c, 0, 32);
+
+            for (int row = 0; row < 4; row++) {
+                int a = row * 8;
+                int b = ((row + 1) & 3) * 8;
+                int d = ((row + 2) & 3) * 8;
+                int e = ((row + 3) & 3) * 8;
+
+                // xtime(a ^ b), the top bit folds back in as 0x1B.
+                long top = c[a + 7] ^ c[b + 7];
+                for (int bit = 0; bit < 8; bit++) {
+                    long doubled = bit == 0 ? top : c[a + bit - 1] ^ c[b + bit - 1];
+                    if (bit == 1 || bit == 3 || bit == 4)
+                        doubled ^= top;
+                    state[base + a + bit] = doubled ^ c[b + bit] ^ c[d + bit] ^ c[e + bit];
+                }
+            }
+        }
+    }
+
+    // -- Private --
+    //   Role: Inverse mix columns, as a multiplication by {04} terms followed by mix columns.
+    //   Args: None
+    // Return: Void
+    //
+    private void inverseMixColumns() {
+        long[] u = this.u;
+        long[] v = this.v;
+        for (int col = 0; col < 4; col++) {
+            int base = col * 32;
+            for (int bit = 0; bit < 8; bit++) {
+                u[bit] = state[base + bit] ^ state[base + 16 + bit];
+                v[bit] = state[base + 8 + bit] ^ state[base + 24 + bit];
+            }
+            timesFour(u);
+            timesFour(v);
+            for (int bit = 0; bit < 8; bit++) {
+                state[base + bit] ^= u[bit];
+                state[base + 16 + bit] ^= u[bit];
+                state[base + 8 + bit] ^= v[bit];
+                state[base + 24 + bit] ^= v[bit];
+            }
+        }
+        mixColumns();
+    }
+
+    // -- Private Static --
+    //   Role: Multiply a byte by {04} in GF(2^8), in place.
+    //   Args: a - Eight bit planes of the byte.
+    // Return: Void
+    //
+    private static void timesFour(long[] a) {
+        for (int n = 0; n < 2; n++) {
+            long top = a[7];
+            for (int bit = 7; bit > 0; bit--) {
+                a[bit] = a[bit - 1];
+            }
+            a[0] = top;
+            a[1] ^= top;
+            a[3] ^= top;
+            a[4] ^= top;
+        }
+    }
+}
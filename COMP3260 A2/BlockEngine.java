@@ -0,0 +1,122 @@
+/*
+BlockEngine.java
+
+Description:
+    Interface for the block cipher implementations a mode can run on. An engine creates
+    ciphers for a key; the modes only ever see the AES block methods. The engines shipped
+    are the reference rounds, the T-table rounds, the bitsliced cipher and javax.crypto,
+    which the JVM backs with the CPU's AES instructions where it has them. An engine may
+    hand out a different cipher for batches of blocks than for single blocks, as the fastest
+    for one is not always the fastest for the other (see EngineSelector.java).
+ */
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+public interface BlockEngine {
+
+    BlockEngine REFERENCE = of("reference", AES::new);
+    BlockEngine TABLE = of("table", TableAES::new);
+    BlockEngine BITSLICED = of("bitsliced", BitslicedAES::new);
+    BlockEngine JCE = of("jce", JCEAES::new);
+
+    // Every engine, in the order they are calibrated.
+    List<BlockEngine> ENGINES = Arrays.asList(REFERENCE, TABLE, BITSLICED, JCE);
+
+    // -- Public Abstract --
+    //   Role: Get the name the engine is selected and reported by.
+    //   Args: None
+    // Return: String
+    //
+    String getName();
+
+    // -- Public Abstract --
+    //   Role: Create a block cipher for a key. A cipher must not be shared between threads.
+    //   Args: key - Expanded key.
+    // Return: AES
+    //
+    AES newCipher(AESKey key);
+
+    // -- Public Default --
+    //   Role: Create a block cipher for paths which pass many blocks per call through
+    //         encryptBlocks() and decryptBlocks(). A cipher must not be shared between threads.
+    //   Args: key - Expanded key.
+    // Return: AES - The same as newCipher() unless the engine is split.
+    //
+    default AES newBatchCipher(AESKey key) {
+        return newCipher(key);
+    }
+
+    // -- Public Static --
+    //   Role: Create an engine from a name and a cipher constructor.
+    //   Args: name - Name of the engine.
+    //         factory - Creates a cipher for a key.
+    // Return: BlockEngine
+    //
+    static BlockEngine of(String name, Function<AESKey, AES> factory) {
+        return new BlockEngine() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public AES newCipher(AESKey key) {
+                return factory.apply(key);
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        };
+    }
+
+    // -- Public Static --
+    //   Role: Combine two engines, one for single blocks and one for batches. The result is
+    //         named "batch/serial" after the two, or is the engine itself if they are the same.
+    //   Args: serial - Engine for ciphers used a block at a time.
+    //         batch - Engine for ciphers used many blocks at a time.
+    // Return: BlockEngine
+    //
+    static BlockEngine split(BlockEngine serial, BlockEngine batch) {
+        if (serial == batch)
+            return batch;
+        String name = batch.getName() + "/" + serial.getName();
+        return new BlockEngine() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public AES newCipher(AESKey key) {
+                return serial.newCipher(key);
+            }
+
+            @Override
+            public AES newBatchCipher(AESKey key) {
+                return batch.newBatchCipher(key);
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        };
+    }
+
+    // -- Public Static --
+    //   Role: Find a shipped engine by name.
+    //   Args: name - Name of the engine, case insensitive.
+    // Return: BlockEngine
+    //
+    static BlockEngine forName(String name) {
+        for (BlockEngine engine : ENGINES) {
+            if (engine.getName().equalsIgnoreCase(name))
+                return engine;
+        }
+        throw new IllegalArgumentException("Unknown engine " + name);
+    }
+}
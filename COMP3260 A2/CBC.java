@@ -5,10 +5,12 @@ Description:
     The CBC (Cipher Block Chaining) mode for block ciphers implementation.
  */
 
-import java.util.List;
+import java.util.Arrays;
 
 public class CBC extends AESMode {
 
+    private byte[] xorBlock; // Previous cipher-text block, starting with the IV
+
     // -- Constructor --
     //   Role: Call super constructor
     //   Args: params - The parameters as defined when the program is initiated.
@@ -18,39 +20,124 @@ public class CBC extends AESMode {
         super(params, "CBC");
     }
 
-    // -- Public  --
-    //   Role: Implement run method of AESMode.
+    // -- Protected --
+    //   Role: Implement runMode method of AESMode.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    protected void runMode() {
+        // Get params to local variables and size the output.
+        byte[] input = getParams().getInputBytes();
+        int iterations = input.length / AES.BLOCK_SIZE;
+        byte[] output = new byte[iterations * AES.BLOCK_SIZE];
+
+        resetChain();
+        processUnits(input, 0, output, 0, iterations);
+        setOutput(output);
+    }
+
+    // -- Protected --
+    //   Role: Start chaining from the IV again.
     //   Args: None
     // Return: Void
     //
     @Override
-    public void run() {
-        // Ensure list is empty and get params to local variables.
-        getOutput().clear();
-        List<Integer> input = getParams().getInputText();
-        List<Integer> key = getParams().getKey();
+    protected void resetChain() {
+        xorBlock = Arrays.copyOf(getParams().getIVBytes(), AES.BLOCK_SIZE);
+    }
+
+    // -- Protected --
+    //   Role: Encrypt or decrypt whole blocks.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         units - Number of blocks.
+    // Return: Void
+    //
+    @Override
+    protected void processUnits(byte[] in, int inOff, byte[] out, int outOff, int units) {
+        if (units == 0)
+            return;
 
-        int iterations = input.size() / key.size();
-        List<Integer> xorList = getParams().getIV();
+        // Encrypt or decrypt depending on parameters. Only exactly in place does decryption
+        // overwrite cipher-text it still needs, other ranges of one array never overlap here.
+        if (getParams().isEncrypting())
+            encrypt(in, inOff, out, outOff, units);
+        else if (in == out && inOff == outOff)
+            decryptInPlace(out, outOff, units);
+        else
+            decrypt(in, inOff, out, outOff, units);
+    }
+
+    // -- Private --
+    //   Role: Encrypt, each block depends on the cipher-text of the one before it.
+    //   Args: in, inOff, out, outOff, units - As for processUnits.
+    // Return: Void
+    //
+    private void encrypt(byte[] in, int inOff, byte[] out, int outOff, int units) {
+        AES cipher = newCipher();
 
         // Loop through the input text, breaking it up into 16-byte portions.
-        for (int i = 0; i < iterations; i++) {
-            List<Integer> inputPart = input.subList(i * key.size(), (i + 1) * key.size());
-
-            // Encrypt or decrypt depending on parameters.
-            List<Integer> resultPart;
-            if (getParams().isEncrypting()) {
-                addLists(inputPart, xorList); // XOR
-                resultPart = AES.encrypt(inputPart, key);
-                xorList = resultPart; // Update list for next iteration
-            } else {
-                resultPart = AES.decrypt(inputPart, key);
-                addLists(resultPart, xorList); // XOR
-                xorList = inputPart; // Update list for next iteration
+        for (int i = 0; i < units; i++) {
+            int offset = outOff + i * AES.BLOCK_SIZE;
+            System.arraycopy(in, inOff + i * AES.BLOCK_SIZE, out, offset, AES.BLOCK_SIZE);
+            addBytes(out, offset, xorBlock, 0, AES.BLOCK_SIZE); // XOR
+            cipher.encryptBlock(out, offset, out, offset);
+
+            // Update block for next iteration
+            System.arraycopy(out, offset, xorBlock, 0, AES.BLOCK_SIZE);
+        }
+    }
+
+    // -- Private --
+    //   Role: Decrypt. Every block only needs the cipher-text before it, which is all
+    //         known up front, so ranges of blocks may run on separate threads.
+    //   Args: in, inOff, out, outOff, units - As for processUnits.
+    // Return: Void
+    //
+    private void decrypt(byte[] in, int inOff, byte[] out, int outOff, int units) {
+        forEachBlockRange(units, (from, to) -> {
+            AES cipher = newBatchCipher();
+            cipher.decryptBlocks(in, inOff + from * AES.BLOCK_SIZE, out, outOff + from * AES.BLOCK_SIZE, to - from);
+
+            for (int i = from; i < to; i++) {
+                int offset = i * AES.BLOCK_SIZE;
+
+                // XOR with the previous cipher-text, or the chained block for the first one.
+                if (i == 0)
+                    addBytes(out, outOff, xorBlock, 0, AES.BLOCK_SIZE);
+                else
+                    addBytes(out, outOff + offset, in, inOff + offset - AES.BLOCK_SIZE, AES.BLOCK_SIZE);
             }
+        });
+
+        // The last cipher-text block chains into the next call.
+        System.arraycopy(in, inOff + (units - 1) * AES.BLOCK_SIZE, xorBlock, 0, AES.BLOCK_SIZE);
+    }
+
+    // -- Private --
+    //   Role: Decrypt in place, where each cipher-text block must be kept before it is overwritten.
+    //   Args: data - Array holding the cipher-text, overwritten with the plain-text.
+    //         offset - Offset of the first block.
+    //         units - Number of blocks.
+    // Return: Void
+    //
+    private void decryptInPlace(byte[] data, int offset, int units) {
+        AES cipher = newCipher();
+        byte[] saved = new byte[AES.BLOCK_SIZE];
+
+        for (int i = 0; i < units; i++) {
+            int blockOffset = offset + i * AES.BLOCK_SIZE;
+            System.arraycopy(data, blockOffset, saved, 0, AES.BLOCK_SIZE);
+            cipher.decryptBlock(data, blockOffset, data, blockOffset);
+            addBytes(data, blockOffset, xorBlock, 0, AES.BLOCK_SIZE); // XOR
 
-            // Add result to output
-            addToOutput(resultPart);
+            // The saved cipher-text becomes the block for the next iteration.
+            byte[] swap = xorBlock;
+            xorBlock = saved;
+            saved = swap;
         }
     }
 }
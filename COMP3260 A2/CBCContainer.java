@@ -0,0 +1,369 @@
+/*
+CBCContainer.java
+
+Description:
+    Framed container for CBC which splits the plain-text into chunks of a fixed size (1 MiB
+    unless given), each encrypted as a CBC message of its own by the CBC mode. The IV of
+    chunk i is E_k(base IV XOR i), with i as a 128-bit big-endian number, so only the base IV
+    is stored and the IVs are still unpredictable to anyone without the key. Chunks do not
+    depend on each other, so they are encrypted and decrypted in parallel, and a range of
+    bytes is read by decrypting only the chunks it covers. Only the last chunk is padded,
+    with PKCS#7, so empty input is a single chunk of padding.
+    Like CBC itself there is no authentication: changes to the cipher-text are only noticed
+    if they break the padding or the layout.
+
+    Layout, big-endian:
+        4 bytes     Magic "ACBC"
+        4 bytes     Chunk size in bytes, a multiple of 16
+        8 bytes     Plain-text length in bytes
+        16 bytes    Base IV
+        4 bytes     Number of chunks, n
+        8n bytes    Offset of each chunk's cipher-text from the start of the container
+        ...         Cipher-text of each chunk in turn, chunk size bytes but the last
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+public class CBCContainer {
+
+    // Chunk size used unless another is given.
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final byte[] MAGIC = "ACBC".getBytes(StandardCharsets.US_ASCII);
+
+    // Bytes of header before the chunk offsets.
+    private static final int FIXED_HEADER = 4 + 4 + 8 + AES.BLOCK_SIZE + 4;
+
+    private final AESKey key;
+    private final int chunkSize;
+    private final BlockEngine engine;
+
+    // -- Constructor --
+    //   Role: Create a container reader and writer for a key.
+    //   Args: key - Expanded key.
+    //         chunkSize - Plain-text bytes per chunk when encrypting, a multiple of 16.
+    //                     Containers being read carry their own.
+    //         engine - Engine every block cipher is created on.
+    // Return: this
+    //
+    public CBCContainer(AESKey key, int chunkSize, BlockEngine engine) {
+        if (chunkSize < AES.BLOCK_SIZE || chunkSize % AES.BLOCK_SIZE != 0)
+            throw new IllegalArgumentException("Chunk size must be a positive multiple of 16, not " + chunkSize);
+        this.key = key;
+        this.chunkSize = chunkSize;
+        this.engine = engine;
+    }
+
+    // -- Public --
+    //   Role: Encrypt a whole file into a container, the chunks in parallel.
+    //   Args: in - File to encrypt.
+    //         out - Empty file to write the container to.
+    //         baseIV - 16 byte base IV, which must be unpredictable as for CBC.
+    // Return: long - Length of the container.
+    //
+    public long encrypt(FileChannel in, FileChannel out, byte[] baseIV) throws IOException {
+        if (baseIV.length != AES.BLOCK_SIZE)
+            throw new IllegalArgumentException("Base IV must be 16 bytes, not " + baseIV.length);
+
+        long length = in.size();
+        Header header = new Header(chunkSize, length, baseIV.clone());
+        writeFully(out, ByteBuffer.wrap(header.toBytes()), 0);
+
+        forEachChunk(header.getChunks(), i -> {
+            long position = (long) i * chunkSize;
+            byte[] plain = new byte[(int) Math.min(chunkSize, length - position)];
+            readFully(in, ByteBuffer.wrap(plain), position);
+
+            // Only the last chunk is padded, the others are whole blocks already.
+            if (i == header.getChunks() - 1)
+                plain = pad(plain);
+            writeFully(out, ByteBuffer.wrap(runCBC(true, plain, header.chunkIV(i))), header.offsets[i]);
+        });
+        return header.getEnd();
+    }
+
+    // -- Public --
+    //   Role: Decrypt a whole container into a file, the chunks in parallel.
+    //   Args: in - Container to decrypt.
+    //         out - Empty file to write the plain-text to.
+    // Return: long - Length of the plain-text.
+    //
+    public long decrypt(FileChannel in, FileChannel out) throws IOException {
+        Header header = readHeader(in);
+        forEachChunk(header.getChunks(), i ->
+                writeFully(out, ByteBuffer.wrap(decryptChunk(in, header, i)), (long) i * header.chunkSize));
+        return header.length;
+    }
+
+    // -- Public --
+    //   Role: Read a range of the plain-text, decrypting only the chunks it covers.
+    //   Args: in - Container to read.
+    //         position - Offset of the first byte within the plain-text.
+    //         length - Number of bytes, the range must lie within the plain-text.
+    // Return: byte[]
+    //
+    public byte[] read(FileChannel in, long position, int length) throws IOException {
+        Header header = readHeader(in);
+        if (position < 0 || length < 0 || position + length > header.length)
+            throw new IllegalArgumentException("Range " + position + ":" + length
+                    + " is not within the " + header.length + " bytes of plain-text");
+
+        byte[] result = new byte[length];
+        if (length == 0)
+            return result;
+
+        int first = (int) (position / header.chunkSize);
+        int last = (int) ((position + length - 1) / header.chunkSize);
+        forEachChunk(last - first + 1, j -> {
+            int i = first + j;
+            byte[] plain = decryptChunk(in, header, i);
+
+            // The part of this chunk which lies within the range.
+            long chunkStart = (long) i * header.chunkSize;
+            long start = Math.max(position, chunkStart);
+            long stop = Math.min(position + length, chunkStart + plain.length);
+            System.arraycopy(plain, (int) (start - chunkStart), result, (int) (start - position), (int) (stop - start));
+        });
+        return result;
+    }
+
+    // -- Public --
+    //   Role: Length of the plain-text held in a container, from its header.
+    //   Args: in - Container to read.
+    // Return: long
+    //
+    public long getPlainLength(FileChannel in) throws IOException {
+        return readHeader(in).length;
+    }
+
+    // -- Private --
+    //   Role: Decrypt one chunk, removing the padding if it is the last.
+    //   Args: in - Container to read.
+    //         header - Header of the container.
+    //         i - Index of the chunk.
+    // Return: byte[] - Plain-text of the chunk.
+    //
+    private byte[] decryptChunk(FileChannel in, Header header, int i) throws IOException {
+        byte[] cipherText = new byte[(int) (header.getChunkEnd(i) - header.offsets[i])];
+        readFully(in, ByteBuffer.wrap(cipherText), header.offsets[i]);
+        byte[] plain = runCBC(false, cipherText, header.chunkIV(i));
+        if (i == header.getChunks() - 1)
+            plain = unpad(plain);
+        if (plain.length != Math.min(header.chunkSize, header.length - (long) i * header.chunkSize))
+            throw new IllegalStateException("CBC container padding does not match its length, wrong key or damaged");
+        return plain;
+    }
+
+    // -- Private --
+    //   Role: Run one chunk through the CBC mode.
+    //   Args: encrypting - Whether to encrypt or decrypt.
+    //         input - Whole blocks to process.
+    //         iv - IV of the chunk.
+    // Return: byte[]
+    //
+    private byte[] runCBC(boolean encrypting, byte[] input, byte[] iv) {
+        CBC cbc = new CBC(new InputParameters(encrypting, 2, 0, input, key.getBytes(), iv));
+        cbc.setEngine(engine);
+        cbc.run();
+        return cbc.getOutputBytes();
+    }
+
+    // -- Private --
+    //   Role: Read and check the header of a container.
+    //   Args: in - Container to read.
+    // Return: Header
+    //
+    private Header readHeader(FileChannel in) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER);
+        if (in.size() < FIXED_HEADER)
+            throw new IOException("Not a CBC container: too short");
+        readFully(in, fixed, 0);
+        fixed.flip();
+
+        byte[] magic = new byte[MAGIC.length];
+        fixed.get(magic);
+        int size = fixed.getInt();
+        long length = fixed.getLong();
+        byte[] baseIV = new byte[AES.BLOCK_SIZE];
+        fixed.get(baseIV);
+        int chunks = fixed.getInt();
+
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("Not a CBC container: bad magic");
+        if (size < AES.BLOCK_SIZE || size % AES.BLOCK_SIZE != 0 || length < 0)
+            throw new IOException("Not a CBC container: bad chunk size or length");
+        if (length > in.size())
+            throw new IOException("Not a CBC container: truncated");
+        Header header = new Header(size, length, baseIV);
+        if (chunks != header.getChunks())
+            throw new IOException("Not a CBC container: " + chunks + " chunks for " + length + " bytes");
+
+        // The offsets must match the layout, a container is not rearranged after it is written.
+        ByteBuffer offsets = ByteBuffer.allocate(8 * chunks);
+        readFully(in, offsets, FIXED_HEADER);
+        offsets.flip();
+        for (int i = 0; i < chunks; i++) {
+            if (offsets.getLong() != header.offsets[i])
+                throw new IOException("Not a CBC container: chunk " + i + " is out of place");
+        }
+        if (in.size() < header.getEnd())
+            throw new IOException("Not a CBC container: truncated");
+        return header;
+    }
+
+    // -- Private Static --
+    //   Role: Process chunks on the common pool, passing on the first I/O failure.
+    //   Args: chunks - Number of chunks.
+    //         task - Work for one chunk.
+    // Return: Void
+    //
+    private static void forEachChunk(int chunks, ChunkTask task) throws IOException {
+        try {
+            IntStream.range(0, chunks).parallel().forEach(i -> {
+                try {
+                    task.process(i);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // -- Private Static --
+    //   Role: Add PKCS#7 padding, 1 to 16 bytes each holding the number of bytes added.
+    //   Args: data - Plain-text of the last chunk.
+    // Return: byte[] - Whole blocks.
+    //
+    private static byte[] pad(byte[] data) {
+        int padding = AES.BLOCK_SIZE - data.length % AES.BLOCK_SIZE;
+        byte[] padded = Arrays.copyOf(data, data.length + padding);
+        Arrays.fill(padded, data.length, padded.length, (byte) padding);
+        return padded;
+    }
+
+    // -- Private Static --
+    //   Role: Check and remove PKCS#7 padding.
+    //   Args: data - Decrypted last chunk.
+    // Return: byte[]
+    //
+    private static byte[] unpad(byte[] data) {
+        int padding = data.length == 0 ? 0 : data[data.length - 1] & 0xFF;
+        boolean valid = padding >= 1 && padding <= AES.BLOCK_SIZE;
+        for (int i = 1; valid && i <= padding; i++) {
+            valid = (data[data.length - i] & 0xFF) == padding;
+        }
+        if (!valid)
+            throw new IllegalStateException("CBC container padding is invalid, wrong key or damaged");
+        return Arrays.copyOf(data, data.length - padding);
+    }
+
+    // -- Private Static --
+    //   Role: Read until a buffer is full, from a position which is not shared with other readers.
+    //   Args: in - Channel to read.
+    //         buffer - Buffer to fill.
+    //         position - Position in the channel.
+    // Return: Void
+    //
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, position);
+            if (read < 0)
+                throw new IOException("Not a CBC container: truncated");
+            position += read;
+        }
+    }
+
+    // -- Private Static --
+    //   Role: Write all of a buffer at a position, which other writers may do at the same time.
+    //   Args: out - Channel to write.
+    //         buffer - Bytes to write.
+    //         position - Position in the channel.
+    // Return: Void
+    //
+    private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+    }
+
+    // -- Getters -- //
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    // -- Nested Types -- //
+
+    // Work done on one chunk.
+    private interface ChunkTask {
+        void process(int index) throws IOException;
+    }
+
+    // Header of a container, with the offsets its layout gives.
+    private class Header {
+
+        final int chunkSize;
+        final long length; // Plain-text bytes
+        final byte[] baseIV;
+        final long[] offsets; // Start of each chunk's cipher-text
+
+        Header(int chunkSize, long length, byte[] baseIV) {
+            this.chunkSize = chunkSize;
+            this.length = length;
+            this.baseIV = baseIV;
+
+            // Every chunk is whole but the last, which holds the rest and at least the padding.
+            long chunks = Math.max(1, (length + chunkSize - 1) / chunkSize);
+            if (FIXED_HEADER + 8 * chunks > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Too many chunks, use a larger chunk size");
+            offsets = new long[(int) chunks];
+            offsets[0] = FIXED_HEADER + 8 * chunks;
+            for (int i = 1; i < offsets.length; i++) {
+                offsets[i] = offsets[i - 1] + chunkSize;
+            }
+        }
+
+        int getChunks() {
+            return offsets.length;
+        }
+
+        // End of a chunk's cipher-text.
+        long getChunkEnd(int i) {
+            if (i < offsets.length - 1)
+                return offsets[i + 1];
+            long rest = length - (long) i * chunkSize;
+            return offsets[i] + (rest / AES.BLOCK_SIZE + 1) * AES.BLOCK_SIZE;
+        }
+
+        long getEnd() {
+            return getChunkEnd(offsets.length - 1);
+        }
+
+        // IV of a chunk: the base IV XOR the index, encrypted.
+        byte[] chunkIV(long index) {
+            byte[] iv = baseIV.clone();
+            for (int b = 0; b < 8; b++) {
+                iv[AES.BLOCK_SIZE - 1 - b] ^= (byte) (index >>> (8 * b));
+            }
+            engine.newCipher(key).encryptBlock(iv, 0, iv, 0);
+            return iv;
+        }
+
+        byte[] toBytes() {
+            ByteBuffer bytes = ByteBuffer.allocate((int) offsets[0]);
+            bytes.put(MAGIC).putInt(chunkSize).putLong(length).put(baseIV).putInt(offsets.length);
+            for (long offset : offsets) {
+                bytes.putLong(offset);
+            }
+            return bytes.array();
+        }
+    }
+}
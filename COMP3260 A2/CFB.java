@@ -2,57 +2,154 @@
 CFB.java
 
 Description:
-    The CFB (Cipher Feedback) mode for block ciphers implementation.
+    The CFB (Cipher Feedback) mode for block ciphers implementation. Segments which depend
+    on each other are run through a CFBCipher, which holds the shift register; decryption
+    which is not in place rebuilds the registers from the cipher-text and runs in parallel.
  */
 
-import java.util.List;
-
 public class CFB extends AESMode {
 
+    private CFBCipher stream; // Shift register, starting with the IV
+
     // -- Constructor --
-    //   Role: Call super constructor
+    //   Role: Call super constructor, and check the segment size.
     //   Args: params - The parameters as defined when the program is initiated.
     // Return: this
     //
     public CFB(InputParameters params) {
         super(params, "CFB");
+        if (params.getSize() < 1 || params.getSize() > AES.BLOCK_SIZE)
+            throw new IllegalArgumentException("CFB needs a segment size between 1 and 16 bytes, not " + params.getSize());
+    }
+
+    // -- Protected --
+    //   Role: Implement runMode method of AESMode.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    protected void runMode() {
+        // Get params to local variables and size the output.
+        byte[] input = getParams().getInputBytes();
+        int size = getUnitSize();
+        int iterations = input.length / size;
+        byte[] output = new byte[iterations * size];
+
+        resetChain();
+        processUnits(input, 0, output, 0, iterations);
+        setOutput(output);
     }
 
-    // -- Public  --
-    //   Role: Implement run method of AESMode.
+    // -- Public --
+    //   Role: CFB works in segments of s bytes.
     //   Args: None
+    // Return: int
+    //
+    @Override
+    public int getUnitSize() {
+        return getParams().getSize();
+    }
+
+    // -- Protected --
+    //   Role: Start the shift register from the IV again.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    protected void resetChain() {
+        stream = new CFBCipher(newCipher(), getParams().getIVBytes(), getUnitSize() * 8, getParams().isEncrypting());
+    }
+
+    // -- Protected --
+    //   Role: Encrypt or decrypt whole segments.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         units - Number of segments.
     // Return: Void
     //
     @Override
-    public void run() {
-        // Ensure list is empty and get params to local variables.
-        getOutput().clear();
-        List<Integer> input = getParams().getInputText();
-        List<Integer> key = getParams().getKey();
-
-        int size = getParams().getSize();
-        int iterations = input.size() / size;
-        List<Integer> encryptPart = getParams().getIV();
-
-        // Loop through the input text, breaking it up into 16-byte portions.
-        for (int i = 0; i < iterations; i++) {
-            List<Integer> inputPart = input.subList(i * size, (i + 1) * size);
-
-            // Run encryption and keep first s bytes.
-            List<Integer> resultPart = AES.encrypt(encryptPart, key);
-            resultPart = resultPart.subList(0, size);
-
-            // XOR result of encryption and input, and add result to the output.
-            addLists(resultPart, inputPart);
-            addToOutput(resultPart);
-
-            // Shift encryptPart to the left and append cipher-text to end.
-            encryptPart = encryptPart.subList(size, key.size());
-            if(getParams().isEncrypting())
-                encryptPart.addAll(resultPart);
-            else
-                encryptPart.addAll(inputPart);
-
-        }
+    protected void processUnits(byte[] in, int inOff, byte[] out, int outOff, int units) {
+        if (units == 0)
+            return;
+
+        // Encrypt or decrypt depending on parameters. Decrypting in place must save the
+        // cipher-text before overwriting it, so it takes the same path as encrypting.
+        if (getParams().isEncrypting() || (in == out && inOff == outOff))
+            stream.update(in, inOff, units * getUnitSize(), out, outOff);
+        else
+            decrypt(in, inOff, out, outOff, units);
+    }
+
+    // -- Protected --
+    //   Role: Encrypt or decrypt the final partial segment of a stream.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         length - Number of bytes, less than a segment.
+    // Return: Void
+    //
+    @Override
+    protected void processFinal(byte[] in, int inOff, byte[] out, int outOff, int length) {
+        stream.update(in, inOff, length, out, outOff);
+    }
+
+    // -- Private --
+    //   Role: Decrypt. The register for each segment is the 16 bytes of register and
+    //         cipher-text just before it, which are all known up front, so ranges of
+    //         segments may run on separate threads.
+    //   Args: in, inOff, out, outOff, units - As for processUnits.
+    // Return: Void
+    //
+    private void decrypt(byte[] in, int inOff, byte[] out, int outOff, int units) {
+        int size = getUnitSize();
+        byte[] initial = new byte[AES.BLOCK_SIZE];
+        stream.getRegister(initial, 0);
+
+        forEachBlockRange(units, (from, to) -> {
+            AES cipher = newBatchCipher();
+            byte[] encryptParts = new byte[BATCH_BLOCKS * AES.BLOCK_SIZE];
+
+            for (int batch = from; batch < to; batch += BATCH_BLOCKS) {
+                int count = Math.min(BATCH_BLOCKS, to - batch);
+
+                // Rebuild the registers for the batch and encrypt them together.
+                for (int j = 0; j < count; j++) {
+                    loadRegister(initial, in, inOff, (batch + j) * size, encryptParts, j * AES.BLOCK_SIZE);
+                }
+                cipher.encryptBlocks(encryptParts, 0, encryptParts, 0, count);
+
+                // Keep first s bytes of each and XOR with the cipher-text.
+                for (int j = 0; j < count; j++) {
+                    int offset = (batch + j) * size;
+                    addBytes(in, inOff + offset, encryptParts, j * AES.BLOCK_SIZE, out, outOff + offset, size);
+                }
+            }
+        });
+
+        // The register after the last segment chains into the next call.
+        byte[] next = new byte[AES.BLOCK_SIZE];
+        loadRegister(initial, in, inOff, units * size, next, 0);
+        stream.setRegister(next, 0);
+    }
+
+    // -- Private Static --
+    //   Role: Take the 16 bytes starting at offset of the initial register followed by the cipher-text.
+    //   Args: initial - Register before the first segment.
+    //         in - Array holding the cipher-text.
+    //         inOff - Offset of the first cipher-text byte.
+    //         offset - Position within the cipher-text of the segment the register is for.
+    //         dest - Array to write the register to.
+    //         destOff - Offset to write the register at.
+    // Return: Void
+    //
+    private static void loadRegister(byte[] initial, byte[] in, int inOff, int offset, byte[] dest, int destOff) {
+        int fromInitial = Math.max(0, AES.BLOCK_SIZE - offset);
+        if (fromInitial > 0)
+            System.arraycopy(initial, offset, dest, destOff, fromInitial);
+        System.arraycopy(in, inOff + offset + fromInitial - AES.BLOCK_SIZE,
+                dest, destOff + fromInitial, AES.BLOCK_SIZE - fromInitial);
     }
 }
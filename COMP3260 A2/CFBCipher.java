@@ -0,0 +1,190 @@
+/*
+CFBCipher.java
+
+Description:
+    Streaming CFB-s engine for segment sizes of 1 bit or any whole number of bytes up to a
+    block (CFB-1, CFB-8 through CFB-128). Any number of bytes may be passed to each update,
+    a segment left unfinished at the end of one call is carried on by the next.
+    The shift register is a 16 byte circular buffer, mirrored into a second copy of itself,
+    so the register is always the 16 contiguous bytes from head and shifting in a segment
+    is a move of head rather than a copy. The block the register encrypts to is reused.
+ */
+
+import java.util.Arrays;
+
+public class CFBCipher {
+
+    private final AES cipher;
+    private final byte[] iv;
+    private final int segmentBits; // 1, or a multiple of 8 up to 128
+    private final int segment; // Segment size in bytes, 0 for CFB-1
+    private final boolean encrypting;
+
+    private final byte[] ring = new byte[2 * AES.BLOCK_SIZE]; // Register bytes i and i + 16 are the same
+    private int head; // Start of the register within ring
+    private int used; // Bytes of the current segment already processed
+    private final byte[] keystream = new byte[AES.BLOCK_SIZE]; // Encrypted register
+
+    // -- Constructor --
+    //   Role: Create a CFB-s engine starting from the IV.
+    //   Args: cipher - Block cipher for the key, used only by this engine.
+    //         iv - Initial register, padded with zeros to a block if short.
+    //         segmentBits - Segment size s in bits: 1, or a multiple of 8 up to 128.
+    //         encrypting - Whether to encrypt or decrypt.
+    // Return: this
+    //
+    public CFBCipher(AES cipher, byte[] iv, int segmentBits, boolean encrypting) {
+        if (segmentBits != 1 && (segmentBits % 8 != 0 || segmentBits < 8 || segmentBits > 8 * AES.BLOCK_SIZE))
+            throw new IllegalArgumentException("CFB segment size must be 1 bit or 1 to 16 bytes, not " + segmentBits + " bits");
+        this.cipher = cipher;
+        this.iv = Arrays.copyOf(iv, AES.BLOCK_SIZE);
+        this.segmentBits = segmentBits;
+        this.segment = segmentBits / 8;
+        this.encrypting = encrypting;
+        reset();
+    }
+
+    // -- Public --
+    //   Role: Start again from the IV.
+    //   Args: None
+    // Return: Void
+    //
+    public void reset() {
+        setRegister(iv, 0);
+    }
+
+    // -- Public --
+    //   Role: Encrypt or decrypt bytes, continuing from the current register.
+    //         The output may be the same range of the same array as the input.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         length - Number of bytes.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    // Return: Void
+    //
+    public void update(byte[] in, int inOff, int length, byte[] out, int outOff) {
+        if (segment == 0) {
+            updateBits(in, inOff, length, out, outOff);
+            return;
+        }
+
+        int i = 0;
+        while (i < length) {
+            if (used == 0) {
+                cipher.encryptBlock(ring, head, keystream, 0);
+
+                // A whole segment at once, shifting in the cipher-text before the output
+                // can overwrite it when decrypting.
+                if (length - i >= segment) {
+                    if (!encrypting)
+                        shiftIn(in, inOff + i);
+                    AESMode.addBytes(in, inOff + i, keystream, 0, out, outOff + i, segment);
+                    if (encrypting)
+                        shiftIn(out, outOff + i);
+                    i += segment;
+                    continue;
+                }
+            }
+
+            // Read the input first, it may be overwritten by the output.
+            byte input = in[inOff + i];
+            byte result = (byte) (input ^ keystream[used]);
+            out[outOff + i] = result;
+
+            // The byte the segment shifts in takes the place of one shifted out, and the
+            // register for this segment has already been encrypted.
+            int position = (head + used) & (AES.BLOCK_SIZE - 1);
+            byte feedback = encrypting ? result : input;
+            ring[position] = feedback;
+            ring[position + AES.BLOCK_SIZE] = feedback;
+
+            if (++used == segment) {
+                head = (head + segment) & (AES.BLOCK_SIZE - 1);
+                used = 0;
+            }
+            i++;
+        }
+    }
+
+    // -- Private --
+    //   Role: Shift a whole segment of cipher-text into the register.
+    //   Args: src - Array holding the segment.
+    //         srcOff - Offset of the segment.
+    // Return: Void
+    //
+    private void shiftIn(byte[] src, int srcOff) {
+        int first = Math.min(segment, AES.BLOCK_SIZE - head);
+        System.arraycopy(src, srcOff, ring, head, first);
+        System.arraycopy(src, srcOff + first, ring, 0, segment - first);
+        System.arraycopy(ring, 0, ring, AES.BLOCK_SIZE, AES.BLOCK_SIZE);
+        head = (head + segment) & (AES.BLOCK_SIZE - 1);
+    }
+
+    // -- Private --
+    //   Role: CFB-1, each byte is eight segments taken from the most significant bit down.
+    //         The register is held at the start of ring and shifted one bit at a time.
+    //   Args: in, inOff, length, out, outOff - As for update.
+    // Return: Void
+    //
+    private void updateBits(byte[] in, int inOff, int length, byte[] out, int outOff) {
+        for (int i = 0; i < length; i++) {
+            int input = in[inOff + i] & 0xFF;
+            int result = 0;
+
+            for (int bit = 7; bit >= 0; bit--) {
+                cipher.encryptBlock(ring, 0, keystream, 0);
+                int inputBit = (input >>> bit) & 1;
+                int resultBit = inputBit ^ ((keystream[0] >>> 7) & 1);
+                result |= resultBit << bit;
+                shiftBit(encrypting ? resultBit : inputBit);
+            }
+            out[outOff + i] = (byte) result;
+        }
+    }
+
+    // -- Private --
+    //   Role: Shift the register left by one bit.
+    //   Args: bit - Bit shifted in at the right.
+    // Return: Void
+    //
+    private void shiftBit(int bit) {
+        for (int i = 0; i < AES.BLOCK_SIZE - 1; i++) {
+            ring[i] = (byte) ((ring[i] << 1) | ((ring[i + 1] & 0xFF) >>> 7));
+        }
+        ring[AES.BLOCK_SIZE - 1] = (byte) ((ring[AES.BLOCK_SIZE - 1] << 1) | bit);
+    }
+
+    // -- Public --
+    //   Role: Copy out the register. Only meaningful on a segment boundary.
+    //   Args: dest - Array to write the 16 byte register to.
+    //         destOff - Offset to write it at.
+    // Return: Void
+    //
+    public void getRegister(byte[] dest, int destOff) {
+        System.arraycopy(ring, head, dest, destOff, AES.BLOCK_SIZE);
+    }
+
+    // -- Public --
+    //   Role: Replace the register, starting a new segment.
+    //   Args: src - Array holding the 16 byte register.
+    //         srcOff - Offset of the register.
+    // Return: Void
+    //
+    public void setRegister(byte[] src, int srcOff) {
+        System.arraycopy(src, srcOff, ring, 0, AES.BLOCK_SIZE);
+        System.arraycopy(src, srcOff, ring, AES.BLOCK_SIZE, AES.BLOCK_SIZE);
+        head = 0;
+        used = 0;
+    }
+
+    // -- Getters -- //
+
+    public int getSegmentBits() {
+        return segmentBits;
+    }
+
+    public boolean isEncrypting() {
+        return encrypting;
+    }
+}
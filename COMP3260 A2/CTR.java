@@ -0,0 +1,143 @@
+/*
+CTR.java
+
+Description:
+    The CTR (Counter) mode for block ciphers implementation. The keystream block for block i
+    of the input is the encryption of IV + i, so any byte range can be encrypted or decrypted
+    without processing the data before it, and keystream blocks can be generated in parallel.
+ */
+
+import java.util.Arrays;
+
+public class CTR extends AESMode {
+
+    private long position; // Position within the stream of the next byte to process
+
+    // -- Constructor --
+    //   Role: Call super constructor
+    //   Args: params - The parameters as defined when the program is initiated.
+    // Return: this
+    //
+    public CTR(InputParameters params) {
+        super(params, "CTR");
+    }
+
+    // -- Protected --
+    //   Role: Implement runMode method of AESMode.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    protected void runMode() {
+        // CTR is a stream mode, so a partial final block is also processed.
+        byte[] input = getParams().getInputBytes();
+        byte[] output = new byte[input.length];
+        process(input, 0, output, 0, input.length, 0);
+        setOutput(output);
+    }
+
+    // -- Protected --
+    //   Role: Start the stream from the first counter block again.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    protected void resetChain() {
+        position = 0;
+    }
+
+    // -- Protected --
+    //   Role: Encrypt or decrypt whole blocks at the current stream position.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         units - Number of blocks.
+    // Return: Void
+    //
+    @Override
+    protected void processUnits(byte[] in, int inOff, byte[] out, int outOff, int units) {
+        processFinal(in, inOff, out, outOff, units * AES.BLOCK_SIZE);
+    }
+
+    // -- Protected --
+    //   Role: Encrypt or decrypt bytes at the current stream position.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         length - Number of bytes.
+    // Return: Void
+    //
+    @Override
+    protected void processFinal(byte[] in, int inOff, byte[] out, int outOff, int length) {
+        process(in, inOff, out, outOff, length, position);
+        position += length;
+    }
+
+    // -- Public --
+    //   Role: Encrypt or decrypt (the same operation in CTR) a range of the stream.
+    //   Args: in - Array holding the input bytes.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to, may be the same as in.
+    //         outOff - Offset to write the result at.
+    //         length - Number of bytes to process.
+    //         position - Position of the first byte within the whole stream.
+    // Return: Void
+    //
+    public void process(byte[] in, int inOff, byte[] out, int outOff, int length, long position) {
+        if (length <= 0)
+            return;
+
+        byte[] iv = Arrays.copyOf(getParams().getIVBytes(), AES.BLOCK_SIZE);
+        long firstBlock = position / AES.BLOCK_SIZE;
+        long end = position + length;
+        int blocks = (int) ((end - 1) / AES.BLOCK_SIZE - firstBlock + 1);
+
+        forEachBlockRange(blocks, (from, to) -> {
+            AES cipher = newBatchCipher();
+            byte[] keystream = new byte[BATCH_BLOCKS * AES.BLOCK_SIZE];
+
+            for (int batch = from; batch < to; batch += BATCH_BLOCKS) {
+                int batchCount = Math.min(BATCH_BLOCKS, to - batch);
+
+                // Encrypt the counter blocks of the batch together.
+                for (int j = 0; j < batchCount; j++) {
+                    counterBlock(iv, firstBlock + batch + j, keystream, j * AES.BLOCK_SIZE);
+                }
+                cipher.encryptBlocks(keystream, 0, keystream, 0, batchCount);
+
+                for (int j = 0; j < batchCount; j++) {
+                    long block = firstBlock + batch + j;
+
+                    // Only the part of this block which lies within the requested range.
+                    long start = Math.max(position, block * AES.BLOCK_SIZE);
+                    long stop = Math.min(end, (block + 1) * AES.BLOCK_SIZE);
+                    int skip = (int) (start - block * AES.BLOCK_SIZE);
+                    int offset = (int) (start - position);
+                    int count = (int) (stop - start);
+
+                    addBytes(in, inOff + offset, keystream, j * AES.BLOCK_SIZE + skip, out, outOff + offset, count);
+                }
+            }
+        });
+    }
+
+    // -- Public Static --
+    //   Role: Compute the counter block IV + index as a 128-bit big-endian addition.
+    //   Args: iv - Initial counter block.
+    //         index - Block index within the stream.
+    //         counter - Array to write the 16 byte counter block to.
+    //         offset - Offset to write the counter block at.
+    // Return: Void
+    //
+    public static void counterBlock(byte[] iv, long index, byte[] counter, int offset) {
+        int carry = 0;
+        for (int i = AES.BLOCK_SIZE - 1; i >= 0; i--) {
+            int sum = (iv[i] & 0xFF) + (int) (index & 0xFF) + carry;
+            counter[offset + i] = (byte) sum;
+            carry = sum >>> 8;
+            index >>>= 8;
+        }
+    }
+}
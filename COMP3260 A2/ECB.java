@@ -5,8 +5,6 @@ Description:
     The EBC (Electronic Code-book) mode for block ciphers implementation.
  */
 
-import java.util.List;
-
 public class ECB extends AESMode {
 
     // -- Constructor --
@@ -18,29 +16,56 @@ public class ECB extends AESMode {
         super(params, "ECB");
     }
 
-    // -- Public  --
-    //   Role: Implement run method of AESMode.
+    // -- Protected --
+    //   Role: Implement runMode method of AESMode.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    protected void runMode() {
+        // Get params to local variables and size the output.
+        byte[] input = getParams().getInputBytes();
+        int iterations = input.length / AES.BLOCK_SIZE;
+        byte[] output = new byte[iterations * AES.BLOCK_SIZE];
+
+        resetChain();
+        processUnits(input, 0, output, 0, iterations);
+        setOutput(output);
+    }
+
+    // -- Protected --
+    //   Role: ECB has no chaining state.
     //   Args: None
     // Return: Void
     //
     @Override
-    public void run() {
-        // Ensure list is empty and get params to local variables.
-        getOutput().clear();
-        List<Integer> input = getParams().getInputText();
-        List<Integer> key = getParams().getKey();
+    protected void resetChain() {
+    }
 
-        int iterations = input.size() / key.size();
+    // -- Protected --
+    //   Role: Encrypt or decrypt whole blocks.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         units - Number of blocks.
+    // Return: Void
+    //
+    @Override
+    protected void processUnits(byte[] in, int inOff, byte[] out, int outOff, int units) {
+        boolean encrypting = getParams().isEncrypting();
 
-        // Loop through the input text, breaking it up into 16-byte portions.
-        for (int i = 0; i < iterations; i++) {
-            List<Integer> inputPart = input.subList(i * key.size(), (i+1) * key.size());
+        // Every block is independent, so ranges of blocks may run on separate threads.
+        // Each range writes straight into its own part of the output.
+        forEachBlockRange(units, (from, to) -> {
+            AES cipher = newBatchCipher();
+            int offset = from * AES.BLOCK_SIZE;
 
             // Encrypt or decrypt depending on parameters.
-            if (getParams().isEncrypting())
-                addToOutput(AES.encrypt(inputPart, key));
+            if (encrypting)
+                cipher.encryptBlocks(in, inOff + offset, out, outOff + offset, to - from);
             else
-                addToOutput(AES.decrypt(inputPart, key));
-        }
+                cipher.decryptBlocks(in, inOff + offset, out, outOff + offset, to - from);
+        });
     }
 }
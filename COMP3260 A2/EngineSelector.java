@@ -0,0 +1,319 @@
+/*
+EngineSelector.java
+
+Description:
+    Picks the block cipher engines to run on. Each available engine is timed twice on a short
+    run of blocks: passing a batch of blocks per call, as ECB, CTR, XTS and the parallel
+    decryptions do, and a block at a time with each block depending on the one before, as
+    CBC and CFB encryption, OFB and the GCM hash key and tag do. The fastest at each is kept
+    for the rest of the process, split between the two if they differ (see BlockEngine.split).
+    The system property aes.engine names an engine to use instead, which skips calibration.
+    Calibration takes about a second and by default happens in every process, keeping nothing
+    on disk. Given the system property aes.engine.cache naming a properties file, the
+    measurements are kept there and reused by later processes on the same JVM, operating
+    system and processor count. Deleting the file makes the next process calibrate again.
+    The choice and the measured throughputs can be reported for logs.
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+public class EngineSelector {
+
+    // System property naming the engine to use rather than calibrating.
+    public static final String ENGINE_PROPERTY = "aes.engine";
+
+    // System property naming the file measurements are kept in, none are kept without it.
+    public static final String CACHE_PROPERTY = "aes.engine.cache";
+
+    // Time each engine runs both ways before it is measured, to let the JIT compile it.
+    private static final long WARMUP_NANOS = 200_000_000L;
+
+    // Time each engine is measured for each way.
+    private static final long MEASURE_NANOS = 50_000_000L;
+
+    // Number of blocks passed per call while measuring batches.
+    private static final int CALIBRATION_BLOCKS = 256;
+
+    private static BlockEngine selected;
+    private static BlockEngine batchEngine; // Fastest at batches, null unless calibrated
+    private static BlockEngine serialEngine; // Fastest a block at a time, null unless calibrated
+    private static Map<String, Double> throughput = Collections.emptyMap(); // Batch MB/s by engine name
+    private static Map<String, Double> serialThroughput = Collections.emptyMap(); // Single block MB/s by engine name
+    private static Path cachedIn; // File the measurements were read from, null if measured
+
+    // -- Public Static --
+    //   Role: Get the engine to run on, reading the measurements kept by an earlier process
+    //         if there is a cache file, or calibrating on the first call.
+    //   Args: None
+    // Return: BlockEngine
+    //
+    public static synchronized BlockEngine getSelected() {
+        if (selected == null) {
+            String name = System.getProperty(ENGINE_PROPERTY);
+            if (name != null && !name.equalsIgnoreCase("auto"))
+                selected = BlockEngine.forName(name);
+            else if (!load())
+                calibrate();
+        }
+        return selected;
+    }
+
+    // -- Public Static --
+    //   Role: Time every available engine, select the fastest at batches and a block at a time,
+    //         and keep the measurements for later processes if there is a cache file. Engines
+    //         which cannot be created or fail while running, such as javax.crypto without an
+    //         AES provider, are left out.
+    //   Args: None
+    // Return: Map<String, Double> - Batch throughput in MB/s by engine name.
+    //
+    public static synchronized Map<String, Double> calibrate() {
+        Random random = new Random();
+        byte[] key = new byte[AES.BLOCK_SIZE];
+        byte[] blocks = new byte[CALIBRATION_BLOCKS * AES.BLOCK_SIZE];
+        random.nextBytes(key);
+        random.nextBytes(blocks);
+        AESKey expanded = new AESKey(key);
+
+        Map<String, Double> batch = new LinkedHashMap<>();
+        Map<String, Double> serial = new LinkedHashMap<>();
+        for (BlockEngine engine : BlockEngine.ENGINES) {
+            try {
+                AES cipher = engine.newCipher(expanded);
+                measure(cipher, blocks, WARMUP_NANOS / 2, false);
+                measure(cipher, blocks, WARMUP_NANOS / 2, true);
+                batch.put(engine.getName(), measure(cipher, blocks, MEASURE_NANOS, false));
+                serial.put(engine.getName(), measure(cipher, blocks, MEASURE_NANOS, true));
+            } catch (RuntimeException e) {
+                batch.remove(engine.getName());
+                serial.remove(engine.getName());
+            }
+        }
+        if (batch.isEmpty())
+            throw new IllegalStateException("No AES engine could be run");
+
+        select(batch, serial);
+        cachedIn = null;
+        save();
+        return throughput;
+    }
+
+    // -- Public Static --
+    //   Role: Describe the selected engine and the throughput of every engine measured.
+    //   Args: None
+    // Return: String
+    //
+    public static synchronized String report() {
+        BlockEngine engine = getSelected();
+        StringBuilder report = new StringBuilder("AES engine: ").append(engine.getName());
+        if (throughput.isEmpty())
+            return report.append(" (set by ").append(ENGINE_PROPERTY).append(")").toString();
+
+        report.append(String.format(" (%.1f MB/s batched, %s %.1f MB/s a block at a time)",
+                throughput.get(batchEngine.getName()), serialEngine.getName(),
+                serialThroughput.get(serialEngine.getName())));
+        appendMeasurements(report, ", batched ", throughput);
+        appendMeasurements(report, ", a block at a time ", serialThroughput);
+        report.append(" MB/s");
+        if (cachedIn != null)
+            report.append(", as measured earlier (").append(cachedIn).append(")");
+        return report.toString();
+    }
+
+    // -- Private Static --
+    //   Role: Select the fastest engines from their measurements.
+    //   Args: batch - Batch throughput in MB/s by engine name, at least one.
+    //         serial - Single block throughput in MB/s by engine name, for the same engines.
+    // Return: Void
+    //
+    private static void select(Map<String, Double> batch, Map<String, Double> serial) {
+        batchEngine = fastest(batch);
+        serialEngine = fastest(serial);
+        selected = BlockEngine.split(serialEngine, batchEngine);
+        throughput = Collections.unmodifiableMap(batch);
+        serialThroughput = Collections.unmodifiableMap(serial);
+    }
+
+    // -- Private Static --
+    //   Role: Find the engine with the highest throughput.
+    //   Args: measured - Throughput in MB/s by engine name.
+    // Return: BlockEngine
+    //
+    private static BlockEngine fastest(Map<String, Double> measured) {
+        String best = null;
+        for (Map.Entry<String, Double> entry : measured.entrySet()) {
+            if (best == null || entry.getValue() > measured.get(best))
+                best = entry.getKey();
+        }
+        return BlockEngine.forName(best);
+    }
+
+    // -- Private Static --
+    //   Role: Use the measurements kept by an earlier process, if they were taken on this
+    //         platform. Engines in the file which are no longer shipped are ignored.
+    //   Args: None
+    // Return: boolean - Whether they could be used.
+    //
+    private static boolean load() {
+        Path cache = getCacheFile();
+        if (cache == null || !Files.isRegularFile(cache))
+            return false;
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(cache, StandardCharsets.ISO_8859_1)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            return false;
+        }
+        if (!platform().equals(properties.getProperty("platform")))
+            return false;
+
+        Map<String, Double> batch = new LinkedHashMap<>();
+        Map<String, Double> serial = new LinkedHashMap<>();
+        try {
+            for (BlockEngine engine : BlockEngine.ENGINES) {
+                String batched = properties.getProperty("batch." + engine.getName());
+                String single = properties.getProperty("serial." + engine.getName());
+                if (batched == null || single == null)
+                    continue;
+                batch.put(engine.getName(), Double.parseDouble(batched));
+                serial.put(engine.getName(), Double.parseDouble(single));
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (batch.isEmpty())
+            return false;
+
+        select(batch, serial);
+        cachedIn = cache;
+        return true;
+    }
+
+    // -- Private Static --
+    //   Role: Keep the measurements for later processes. The file is replaced in one move, so a
+    //         process reading it never sees half of it. Failing to write it only costs the next
+    //         process a calibration, so errors are ignored.
+    //   Args: None
+    // Return: Void
+    //
+    private static void save() {
+        Path cache = getCacheFile();
+        if (cache == null)
+            return;
+
+        Properties properties = new Properties();
+        properties.setProperty("platform", platform());
+        for (Map.Entry<String, Double> entry : throughput.entrySet()) {
+            properties.setProperty("batch." + entry.getKey(), entry.getValue().toString());
+            properties.setProperty("serial." + entry.getKey(), serialThroughput.get(entry.getKey()).toString());
+        }
+
+        Path temporary = null;
+        try {
+            Path directory = cache.toAbsolutePath().getParent();
+            temporary = Files.createTempFile(directory, ".aes-engines", ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.ISO_8859_1)) {
+                properties.store(writer, "AES engine throughput in MB/s, delete to calibrate again");
+            }
+            Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            try {
+                if (temporary != null)
+                    Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // Left behind, nothing reads it.
+            }
+        }
+    }
+
+    // -- Private Static --
+    //   Role: Encrypt and decrypt the blocks in place for about the given time.
+    //   Args: cipher - Cipher to measure.
+    //         blocks - Blocks to process.
+    //         nanos - Time to run for.
+    //         serial - Whether to encrypt one block per call, each from the block before it,
+    //                  rather than every block in one call to encryptBlocks and decryptBlocks.
+    // Return: double - Throughput in MB/s.
+    //
+    private static double measure(AES cipher, byte[] blocks, long nanos, boolean serial) {
+        int count = blocks.length / AES.BLOCK_SIZE;
+        long bytes = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            if (serial) {
+                for (int i = AES.BLOCK_SIZE; i < blocks.length; i += AES.BLOCK_SIZE) {
+                    cipher.encryptBlock(blocks, i - AES.BLOCK_SIZE, blocks, i);
+                }
+                bytes += blocks.length - AES.BLOCK_SIZE;
+            } else {
+                cipher.encryptBlocks(blocks, 0, blocks, 0, count);
+                cipher.decryptBlocks(blocks, 0, blocks, 0, count);
+                bytes += 2L * blocks.length;
+            }
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        return bytes * 1e3 / elapsed;
+    }
+
+    // -- Private Static --
+    //   Role: Append measurements to a report.
+    //   Args: report - Report being built.
+    //         label - Text before the measurements.
+    //         measured - Throughput in MB/s by engine name.
+    // Return: Void
+    //
+    private static void appendMeasurements(StringBuilder report, String label, Map<String, Double> measured) {
+        String separator = label;
+        for (Map.Entry<String, Double> entry : measured.entrySet()) {
+            report.append(separator).append(String.format("%s %.1f", entry.getKey(), entry.getValue()));
+            separator = ", ";
+        }
+    }
+
+    // -- Private Static --
+    //   Role: Describe the platform, measurements taken on another are not reused.
+    //   Args: None
+    // Return: String
+    //
+    private static String platform() {
+        return String.join(" ", System.getProperty("java.vm.name"), System.getProperty("java.vm.version"),
+                System.getProperty("os.name"), System.getProperty("os.arch"),
+                Integer.toString(Runtime.getRuntime().availableProcessors()));
+    }
+
+    // -- Private Static --
+    //   Role: File the measurements are kept in, named by the aes.engine.cache property. Nothing
+    //         is written anywhere unless it is set.
+    //   Args: None
+    // Return: Path - Null if none is kept.
+    //
+    private static Path getCacheFile() {
+        String name = System.getProperty(CACHE_PROPERTY);
+        if (name == null || name.isEmpty() || name.equalsIgnoreCase("none"))
+            return null;
+        return Paths.get(name);
+    }
+
+    // -- Getters -- //
+
+    public static synchronized Map<String, Double> getThroughput() {
+        return throughput;
+    }
+
+    public static synchronized Map<String, Double> getSerialThroughput() {
+        return serialThroughput;
+    }
+}
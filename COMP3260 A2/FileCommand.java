@@ -0,0 +1,359 @@
+/*
+FileCommand.java
+
+Description:
+    Command line mode which encrypts or decrypts a whole file, rather than a hex string read
+    from the console. The input and output files are memory mapped a window at a time; each
+    input window is copied into the output mapping and the chosen AESMode run over it in
+    place, carrying its chaining state from one window to the next. The mode passes the mapping
+    through a small heap array of its own (see AESMode.update(ByteBuffer)), so there is no hex
+    round trip and memory use does not grow with the file size. GCM, which adds or takes a
+    tag, is streamed through arrays instead. ECB, CTR, and CBC / CFB decryption run in parallel.
+    The block cipher engine is calibrated at startup unless one is named, and the engine in
+    use is reported on standard error. GCM output carries the tag at its end; if the tag
+    does not match when decrypting, the output file is deleted. XTS can instead process a
+    range of sectors of the input image in place, given --sectors and no --out.
+    CBC given --container writes a chunked container (see CBCContainer.java) whose chunks are
+    encrypted in parallel, with a random base IV unless --iv is given; when decrypting,
+    --range writes only the bytes asked for, decrypting only the chunks they lie in.
+
+    Usage: AESInterface --in file --out file --mode ECB|CFB|CBC|OFB|CTR|GCM|XTS --key hex
+                        [--iv hex] [--size n] [--decrypt]
+                        [--engine auto|reference|table|bitsliced|jce]
+                        [--sector-size n] [--sectors first:count]
+                        [--container [--chunk-size n] [--range position:length]]
+    The engine measurements of --engine auto are kept between runs only in the file named by
+    -Daes.engine.cache=file (see EngineSelector.java).
+ */
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+
+public class FileCommand {
+
+    // Names of the modes, indexed by their number in InputParameters.
+    public static final List<String> MODES = Arrays.asList("ECB", "CFB", "CBC", "OFB", "CTR", "GCM", "XTS");
+
+    // Size of the part of each file mapped at once.
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private Path input;
+    private Path output;
+    private InputParameters params;
+    private BlockEngine engine; // Null to calibrate
+    private int sectorSize = XTS.DEFAULT_SECTOR_SIZE;
+    private long firstSector = -1; // Start of the XTS sector range processed in place, -1 for none
+    private long sectorCount;
+    private boolean container; // CBC as a chunked container
+    private int chunkSize = CBCContainer.DEFAULT_CHUNK_SIZE;
+    private long rangePosition = -1; // Start of the plain-text read from a container, -1 for all of it
+    private int rangeLength;
+
+    // -- Constructor --
+    //   Role: Parse the command line arguments.
+    //   Args: args - Arguments given to AESInterface.
+    // Return: this
+    //
+    public FileCommand(String[] args) {
+        String in = null, out = null, mode = null, key = null, iv = "";
+        int size = 0;
+        boolean encrypting = true;
+        String engineName = "auto";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--in":
+                    in = value(args, ++i);
+                    break;
+                case "--out":
+                    out = value(args, ++i);
+                    break;
+                case "--mode":
+                    mode = value(args, ++i).toUpperCase();
+                    break;
+                case "--key":
+                    key = value(args, ++i);
+                    break;
+                case "--iv":
+                    iv = value(args, ++i);
+                    break;
+                case "--size":
+                    size = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--decrypt":
+                    encrypting = false;
+                    break;
+                case "--engine":
+                    engineName = value(args, ++i);
+                    break;
+                case "--sector-size":
+                    sectorSize = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--sectors":
+                    String[] range = value(args, ++i).split(":");
+                    if (range.length != 2)
+                        throw new IllegalArgumentException("--sectors takes first:count");
+                    firstSector = Long.parseLong(range[0]);
+                    sectorCount = Long.parseLong(range[1]);
+                    break;
+                case "--container":
+                    container = true;
+                    break;
+                case "--chunk-size":
+                    chunkSize = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--range":
+                    String[] bytes = value(args, ++i).split(":");
+                    if (bytes.length != 2)
+                        throw new IllegalArgumentException("--range takes position:length");
+                    rangePosition = Long.parseLong(bytes[0]);
+                    rangeLength = Integer.parseInt(bytes[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        if (firstSector >= 0 && out == null)
+            out = in;
+        if (in == null || out == null || mode == null || key == null)
+            throw new IllegalArgumentException("--in, --out, --mode and --key are required");
+        if (!MODES.contains(mode))
+            throw new IllegalArgumentException("Unknown mode " + mode);
+        if (firstSector >= 0 && (!mode.equals("XTS") || !out.equals(in)))
+            throw new IllegalArgumentException("--sectors is only for XTS, in place on --in");
+        if (sectorSize < AES.BLOCK_SIZE)
+            throw new IllegalArgumentException("--sector-size must be at least 16");
+        if (mode.equals("CFB") && (size < 1 || size > AES.BLOCK_SIZE))
+            throw new IllegalArgumentException("CFB needs --size between 1 and 16");
+        if (container && !mode.equals("CBC"))
+            throw new IllegalArgumentException("--container is only for CBC");
+        if (container && (chunkSize < AES.BLOCK_SIZE || chunkSize % AES.BLOCK_SIZE != 0))
+            throw new IllegalArgumentException("--chunk-size must be a positive multiple of 16");
+        if (rangePosition >= 0 && (!container || encrypting))
+            throw new IllegalArgumentException("--range is only for decrypting a --container");
+
+        if (!engineName.equalsIgnoreCase("auto"))
+            engine = BlockEngine.forName(engineName);
+
+        input = Paths.get(in);
+        output = Paths.get(out);
+        params = new InputParameters(encrypting, MODES.indexOf(mode), size, new byte[0], HexCodec.decode(key), HexCodec.decode(iv));
+    }
+
+    // -- Public --
+    //   Role: Run the whole input file through the mode into the output file.
+    //   Args: None
+    // Return: long - Number of bytes written.
+    //
+    public long run() throws IOException {
+        if (firstSector < 0)
+            checkDistinct();
+
+        BlockEngine selected = engine;
+        if (selected == null) {
+            selected = EngineSelector.getSelected();
+            System.err.println(EngineSelector.report());
+        } else {
+            System.err.println("AES engine: " + engine.getName());
+        }
+        if (container)
+            return runContainer(selected);
+
+        AESMode mode = AESInterface.createMode(params);
+        mode.setEngine(selected);
+        mode.setParallel(true);
+
+        if (mode instanceof XTS) {
+            XTS xts = (XTS) mode;
+            xts.setSectorSize(sectorSize);
+            if (firstSector >= 0)
+                return runSectors(xts);
+        }
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (mode.isInPlaceSupported())
+                return runMapped(mode, in, out);
+            return runArrays(mode, in, out);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // Nothing may be kept of output which failed authentication, or of a window
+            // copied into the output but never encrypted.
+            Files.deleteIfExists(output);
+            throw e;
+        }
+    }
+
+    // -- Private Static --
+    //   Role: Run a mode in place over the mapped output, one window at a time. Each window
+    //         is a whole number of units, so only the last can leave a partial unit.
+    //   Args: mode - Mode to run, which must be able to run in place.
+    //         in - Input file.
+    //         out - Output file, the same size as the input.
+    // Return: long - Number of bytes written.
+    //
+    private static long runMapped(AESMode mode, FileChannel in, FileChannel out) throws IOException {
+        long size = in.size();
+        int window = WINDOW_SIZE / mode.getUnitSize() * mode.getUnitSize();
+        long position = 0;
+
+        do {
+            int length = (int) Math.min(window, size - position);
+            MappedByteBuffer source = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+            MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, position, length);
+            target.put(source);
+            target.flip();
+
+            position += length;
+            if (position < size)
+                mode.update(target);
+            else
+                mode.doFinal(target);
+        } while (position < size);
+        return size;
+    }
+
+    // -- Private Static --
+    //   Role: Stream a mode through arrays over mapped windows, for modes whose output is not
+    //         the size of their input.
+    //   Args: mode - Mode to run.
+    //         in - Input file.
+    //         out - Output file.
+    // Return: long - Number of bytes written.
+    //
+    private static long runArrays(AESMode mode, FileChannel in, FileChannel out) throws IOException {
+        long size = in.size();
+        byte[] window = new byte[(int) Math.min(size, WINDOW_SIZE)];
+        byte[] result = new byte[window.length + mode.getUnitSize()];
+        long written = 0;
+
+        for (long position = 0; position < size; position += window.length) {
+            int length = (int) Math.min(window.length, size - position);
+            MappedByteBuffer source = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+            source.get(window, 0, length);
+
+            int count = mode.update(window, 0, length, result, 0);
+            written += write(out, written, result, count);
+        }
+
+        written += write(out, written, mode.doFinal());
+        return written;
+    }
+
+    // -- Private --
+    //   Role: Encrypt the input into a chunked CBC container, or decrypt all or a range of one.
+    //   Args: selected - Engine to run on.
+    // Return: long - Number of bytes written.
+    //
+    private long runContainer(BlockEngine selected) throws IOException {
+        CBCContainer cbc = new CBCContainer(AESKey.of(params.getKeyBytes()), chunkSize, selected);
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            if (rangePosition >= 0) {
+                byte[] bytes = cbc.read(in, rangePosition, rangeLength);
+                Files.write(output, bytes);
+                return bytes.length;
+            }
+
+            try (FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (!params.isEncrypting())
+                    return cbc.decrypt(in, out);
+
+                byte[] baseIV = params.getIVBytes();
+                if (baseIV.length == 0) {
+                    baseIV = new byte[AES.BLOCK_SIZE];
+                    new SecureRandom().nextBytes(baseIV);
+                }
+                return cbc.encrypt(in, out, baseIV);
+            }
+        } catch (IllegalStateException e) {
+            // Nothing may be kept of output which failed to decrypt.
+            Files.deleteIfExists(output);
+            throw e;
+        }
+    }
+
+    // -- Private --
+    //   Role: Refuse to write over the input. The output is truncated before the input is read,
+    //         so the same file, under any name or link, would be lost.
+    //   Args: None
+    // Return: Void
+    //
+    private void checkDistinct() throws IOException {
+        if (Files.exists(output) && Files.isSameFile(input, output))
+            throw new IllegalArgumentException("--out is the same file as --in, which would be lost;"
+                    + " write to another file, or use --sectors for XTS in place");
+    }
+
+    // -- Private --
+    //   Role: Encrypt or decrypt the chosen range of sectors of the input image in place.
+    //   Args: xts - XTS mode to run.
+    // Return: long - Number of bytes rewritten.
+    //
+    private long runSectors(XTS xts) throws IOException {
+        try (FileChannel image = FileChannel.open(input, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            xts.processImage(image, firstSector, sectorCount);
+        }
+        return sectorCount * sectorSize;
+    }
+
+    // -- Private Static --
+    //   Role: Write bytes to a mapped window of the output file.
+    //   Args: out - Output file.
+    //         position - Position in the file to write at.
+    //         bytes - Array holding the data.
+    //         length - Number of bytes to write.
+    // Return: int - Number of bytes written.
+    //
+    private static int write(FileChannel out, long position, byte[] bytes, int length) throws IOException {
+        if (length > 0) {
+            MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, position, length);
+            target.put(bytes, 0, length);
+        }
+        return length;
+    }
+
+    private static int write(FileChannel out, long position, byte[] bytes) throws IOException {
+        return write(out, position, bytes, bytes.length);
+    }
+
+    // -- Private Static --
+    //   Role: Get the value following an option.
+    //   Args: args - All arguments.
+    //         i - Index of the value.
+    // Return: String
+    //
+    private static String value(String[] args, int i) {
+        if (i >= args.length)
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    // -- Getters -- //
+
+    public Path getInput() {
+        return input;
+    }
+
+    public Path getOutput() {
+        return output;
+    }
+
+    public InputParameters getParams() {
+        return params;
+    }
+
+    public BlockEngine getEngine() {
+        return engine;
+    }
+}
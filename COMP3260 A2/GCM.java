@@ -0,0 +1,336 @@
+/*
+GCM.java
+
+Description:
+    The GCM (Galois/Counter Mode) authenticated mode for block ciphers implementation.
+    The data is encrypted in counter mode and the cipher-text authenticated with GHASH in
+    the same pass: it is processed a segment at a time, the keystream of a segment is
+    generated in parallel and the segment is hashed while it is still in cache.
+    Encrypting appends a 16 byte tag to the cipher-text. Decrypting expects the tag at the
+    end of the input and throws IllegalStateException if it does not match. When streaming,
+    plain-text is released before the tag is checked in doFinal(), so it must be discarded
+    if doFinal() throws.
+ */
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+public class GCM extends AESMode {
+
+    // Size of the authentication tag in bytes.
+    public static final int TAG_SIZE = 16;
+
+    // Blocks encrypted and hashed together, small enough to stay in cache between the two.
+    private static final int SEGMENT_BLOCKS = 4096;
+
+    private byte[] aad = new byte[0]; // Additional authenticated data
+    private AES cipher; // Encrypts the hash key and the first counter block
+    private GHash ghash;
+    private byte[] firstCounter; // J0, its encryption masks the tag
+    private long blocks; // Counter blocks used so far
+    private long length; // Cipher-text bytes hashed so far
+
+    // Decryption holds back the last bytes seen, which may be the tag.
+    private byte[] tail = new byte[TAG_SIZE];
+    private byte[] nextTail = new byte[TAG_SIZE];
+    private int tailLength;
+
+    // -- Constructor --
+    //   Role: Call super constructor
+    //   Args: params - The parameters as defined when the program is initiated.
+    // Return: this
+    //
+    public GCM(InputParameters params) {
+        super(params, "GCM");
+    }
+
+    // -- Protected --
+    //   Role: Implement runMode method of AESMode.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    protected void runMode() {
+        byte[] input = getParams().getInputBytes();
+        boolean encrypting = getParams().isEncrypting();
+        int textLength = input.length;
+        if (!encrypting) {
+            if (textLength < TAG_SIZE)
+                throw new IllegalStateException("GCM input is shorter than the tag");
+            textLength -= TAG_SIZE;
+        }
+        byte[] output = new byte[encrypting ? textLength + TAG_SIZE : textLength];
+
+        // GCM is a stream mode, so a partial final block is also processed.
+        resetChain();
+        process(input, 0, output, 0, textLength);
+        if (encrypting)
+            computeTag(output, textLength);
+        else
+            verifyTag(input, textLength);
+        setOutput(output);
+    }
+
+    // -- Protected --
+    //   Role: Feed the next part of the input to a stream. Decryption always holds back the
+    //         last 16 bytes, as they may be the tag.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         length - Number of input bytes.
+    //         out - Array to write the result to, with room for getOutputSize(length) bytes.
+    //         outOff - Offset to write the result at.
+    // Return: int - Number of bytes written.
+    //
+    @Override
+    protected int feed(byte[] in, int inOff, int length, byte[] out, int outOff) {
+        if (getParams().isEncrypting())
+            return super.feed(in, inOff, length, out, outOff);
+
+        int release = tailLength + length - TAG_SIZE;
+        if (release <= 0) {
+            System.arraycopy(in, inOff, tail, tailLength, length);
+            tailLength += length;
+            return 0;
+        }
+
+        // Save the new tail before any output is written, the output may overlap it.
+        int fromTail = Math.min(release, tailLength);
+        int fromInput = release - fromTail;
+        int keptTail = tailLength - fromTail;
+        System.arraycopy(tail, fromTail, nextTail, 0, keptTail);
+        System.arraycopy(in, inOff + fromInput, nextTail, keptTail, length - fromInput);
+
+        // Held back bytes come first, which moves the output ahead of the input.
+        if (in == out && fromTail > 0 && inOff < outOff + release + AES.BLOCK_SIZE && outOff < inOff + fromInput) {
+            in = Arrays.copyOfRange(in, inOff, inOff + fromInput);
+            inOff = 0;
+        }
+        int written = super.feed(tail, 0, fromTail, out, outOff);
+        written += super.feed(in, inOff, fromInput, out, outOff + written);
+
+        byte[] swap = tail;
+        tail = nextTail;
+        nextTail = swap;
+        tailLength = TAG_SIZE;
+        return written;
+    }
+
+    // -- Protected --
+    //   Role: GCM cannot run in place, the tag is added to or taken from the end of the data.
+    //   Args: None
+    // Return: boolean
+    //
+    @Override
+    protected boolean isInPlaceSupported() {
+        return false;
+    }
+
+    // -- Public --
+    //   Role: Number of bytes the next update() of the given length will write.
+    //   Args: length - Number of input bytes.
+    // Return: int
+    //
+    @Override
+    public int getOutputSize(int length) {
+        if (getParams().isEncrypting())
+            return super.getOutputSize(length);
+        return super.getOutputSize(Math.max(0, tailLength + length - TAG_SIZE));
+    }
+
+    // -- Public --
+    //   Role: Abandon a stream, dropping any held back bytes.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    public void reset() {
+        super.reset();
+        tailLength = 0;
+    }
+
+    // -- Protected --
+    //   Role: Derive the hash key and first counter block, and hash the AAD.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    protected void resetChain() {
+        byte[] iv = getParams().getIVBytes();
+        if (iv.length == 0)
+            throw new IllegalStateException("GCM needs an IV");
+
+        cipher = newCipher();
+        byte[] h = new byte[AES.BLOCK_SIZE];
+        cipher.encryptBlock(h, 0, h, 0);
+        ghash = new GHash(h);
+
+        // A 96-bit IV is used directly, any other length is hashed down to a block.
+        firstCounter = new byte[AES.BLOCK_SIZE];
+        if (iv.length == 12) {
+            System.arraycopy(iv, 0, firstCounter, 0, 12);
+            firstCounter[15] = 1;
+        } else {
+            ghash.update(iv, 0, iv.length);
+            ghash.updateLengths(0, iv.length * 8L);
+            ghash.digest(firstCounter, 0);
+            ghash.reset();
+        }
+
+        ghash.update(aad, 0, aad.length);
+        blocks = 0;
+        length = 0;
+    }
+
+    // -- Protected --
+    //   Role: Encrypt or decrypt whole blocks, continuing the stream.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         units - Number of blocks.
+    // Return: Void
+    //
+    @Override
+    protected void processUnits(byte[] in, int inOff, byte[] out, int outOff, int units) {
+        process(in, inOff, out, outOff, units * AES.BLOCK_SIZE);
+    }
+
+    // -- Protected --
+    //   Role: Encrypt or decrypt the final partial block of a stream.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         length - Number of bytes, less than a block.
+    // Return: Void
+    //
+    @Override
+    protected void processFinal(byte[] in, int inOff, byte[] out, int outOff, int length) {
+        process(in, inOff, out, outOff, length);
+    }
+
+    // -- Protected --
+    //   Role: Append the tag when encrypting, check it when decrypting.
+    //   Args: None
+    // Return: byte[] - The tag, or nothing when decrypting.
+    //
+    @Override
+    protected byte[] finish() {
+        if (getParams().isEncrypting()) {
+            byte[] tag = new byte[TAG_SIZE];
+            computeTag(tag, 0);
+            return tag;
+        }
+
+        if (tailLength < TAG_SIZE)
+            throw new IllegalStateException("GCM input is shorter than the tag");
+        verifyTag(tail, 0);
+        return new byte[0];
+    }
+
+    // -- Private --
+    //   Role: Encrypt or decrypt bytes, hashing the cipher-text. Only the final call of a
+    //         stream may have a length which is not a multiple of the block size.
+    //   Args: in, inOff, out, outOff - As for processUnits.
+    //         length - Number of bytes.
+    // Return: Void
+    //
+    private void process(byte[] in, int inOff, byte[] out, int outOff, int length) {
+        boolean encrypting = getParams().isEncrypting();
+        int total = (length + AES.BLOCK_SIZE - 1) / AES.BLOCK_SIZE;
+
+        for (int segment = 0; segment < total; segment += SEGMENT_BLOCKS) {
+            int offset = segment * AES.BLOCK_SIZE;
+            int bytes = Math.min(length - offset, SEGMENT_BLOCKS * AES.BLOCK_SIZE);
+
+            // Decrypting in place, the cipher-text must be hashed before it is overwritten.
+            if (!encrypting)
+                ghash.update(in, inOff + offset, bytes);
+            keystream(in, inOff + offset, out, outOff + offset, bytes, blocks + segment);
+            if (encrypting)
+                ghash.update(out, outOff + offset, bytes);
+        }
+
+        blocks += total;
+        this.length += length;
+    }
+
+    // -- Private --
+    //   Role: XOR bytes with the keystream, in parallel if enabled.
+    //   Args: in, inOff, out, outOff - As for processUnits.
+    //         length - Number of bytes.
+    //         first - Index of the counter block for the first byte.
+    // Return: Void
+    //
+    private void keystream(byte[] in, int inOff, byte[] out, int outOff, int length, long first) {
+        int count = (length + AES.BLOCK_SIZE - 1) / AES.BLOCK_SIZE;
+
+        forEachBlockRange(count, (from, to) -> {
+            AES batchCipher = newBatchCipher();
+            byte[] keystream = new byte[BATCH_BLOCKS * AES.BLOCK_SIZE];
+
+            for (int batch = from; batch < to; batch += BATCH_BLOCKS) {
+                int batchCount = Math.min(BATCH_BLOCKS, to - batch);
+                for (int j = 0; j < batchCount; j++) {
+                    counterBlock(first + batch + j, keystream, j * AES.BLOCK_SIZE);
+                }
+                batchCipher.encryptBlocks(keystream, 0, keystream, 0, batchCount);
+
+                int offset = batch * AES.BLOCK_SIZE;
+                int bytes = Math.min(length - offset, batchCount * AES.BLOCK_SIZE);
+                addBytes(in, inOff + offset, keystream, 0, out, outOff + offset, bytes);
+            }
+        });
+    }
+
+    // -- Private --
+    //   Role: Counter block for a data block: J0 with its last 32 bits incremented
+    //         (modulo 2^32) by one more than the index.
+    //   Args: index - Index of the data block within the stream.
+    //         counter - Array to write the counter block to.
+    //         offset - Offset to write it at.
+    // Return: Void
+    //
+    private void counterBlock(long index, byte[] counter, int offset) {
+        System.arraycopy(firstCounter, 0, counter, offset, 12);
+        TableAES.putWord(counter, offset + 12, TableAES.getWord(firstCounter, 12) + (int) (index + 1));
+    }
+
+    // -- Private --
+    //   Role: Finish the hash and mask it with the encrypted first counter block.
+    //   Args: tag - Array to write the tag to.
+    //         offset - Offset to write it at.
+    // Return: Void
+    //
+    private void computeTag(byte[] tag, int offset) {
+        byte[] mask = new byte[AES.BLOCK_SIZE];
+        cipher.encryptBlock(firstCounter, 0, mask, 0);
+        ghash.updateLengths(aad.length * 8L, length * 8L);
+        ghash.digest(tag, offset);
+        addBytes(tag, offset, mask, 0, TAG_SIZE);
+    }
+
+    // -- Private --
+    //   Role: Compare the expected tag with one received, in time independent of where they differ.
+    //   Args: received - Array holding the received tag.
+    //         offset - Offset of the tag.
+    // Return: Void
+    //
+    private void verifyTag(byte[] received, int offset) {
+        byte[] expected = new byte[TAG_SIZE];
+        computeTag(expected, 0);
+        if (!MessageDigest.isEqual(expected, Arrays.copyOfRange(received, offset, offset + TAG_SIZE)))
+            throw new IllegalStateException("GCM tag mismatch");
+    }
+
+    // -- Getters and Setters -- //
+
+    public byte[] getAAD() {
+        return aad.clone();
+    }
+
+    // Additional data authenticated with the next run or stream, but not encrypted.
+    public void setAAD(byte[] aad) {
+        this.aad = aad.clone();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+GHash.java
+
+Description:
+    The GHASH universal hash of GCM: each 16 byte block is XORed into the state, which is
+    then multiplied by the hash key H in GF(2^128). Multiplication uses Shoup's 4-bit
+    method: the 16 multiples of H by a 4-bit value are precomputed when the hash is
+    created, and a product is 32 table lookups, each followed by a 4-bit shift whose
+    overflow is reduced through a second 16 entry table. The lookups depend on the data,
+    so unlike the bitsliced cipher this is not constant time.
+ */
+
+public class GHash {
+
+    // Reduction of the four bits shifted out of the low end, placed at the top of the high word.
+    private static final long[] LAST4 = new long[]
+            {0x0000, 0x1C20, 0x3840, 0x2460, 0x7080, 0x6CA0, 0x48C0, 0x54E0,
+            0xE100, 0xFD20, 0xD940, 0xC560, 0x9180, 0x8DA0, 0xA9C0, 0xB5E0};
+
+    // Multiples of H by each 4-bit value, as high and low 64 bits.
+    private final long[] high = new long[16];
+    private final long[] low = new long[16];
+
+    private long stateHigh;
+    private long stateLow;
+
+    // -- Constructor --
+    //   Role: Precompute the multiplication tables for a hash key.
+    //   Args: h - Hash key, the encryption of the zero block.
+    // Return: this
+    //
+    public GHash(byte[] h) {
+        long vh = getLong(h, 0);
+        long vl = getLong(h, 8);
+
+        // In GCM's reflected bit order, index 8 is H itself and halving the index multiplies by x.
+        high[8] = vh;
+        low[8] = vl;
+        for (int i = 4; i > 0; i >>= 1) {
+            long reduce = (vl & 1) != 0 ? 0xE100000000000000L : 0;
+            vl = (vh << 63) | (vl >>> 1);
+            vh = (vh >>> 1) ^ reduce;
+            high[i] = vh;
+            low[i] = vl;
+        }
+
+        // The remaining entries are sums of those.
+        for (int i = 2; i <= 8; i *= 2) {
+            for (int j = 1; j < i; j++) {
+                high[i + j] = high[i] ^ high[j];
+                low[i + j] = low[i] ^ low[j];
+            }
+        }
+    }
+
+    // -- Public --
+    //   Role: Clear the state, keeping the hash key.
+    //   Args: None
+    // Return: Void
+    //
+    public void reset() {
+        stateHigh = 0;
+        stateLow = 0;
+    }
+
+    // -- Public --
+    //   Role: Hash data. A partial final block is padded with zeros, so only the last call
+    //         for a given input (AAD or cipher-text) may pass a length which is not a multiple of 16.
+    //   Args: data - Array holding the data.
+    //         offset - Offset of the first byte.
+    //         length - Number of bytes.
+    // Return: Void
+    //
+    public void update(byte[] data, int offset, int length) {
+        int end = offset + length;
+        for (; offset + AES.BLOCK_SIZE <= end; offset += AES.BLOCK_SIZE) {
+            stateHigh ^= getLong(data, offset);
+            stateLow ^= getLong(data, offset + 8);
+            multiply();
+        }
+
+        if (offset < end) {
+            byte[] block = new byte[AES.BLOCK_SIZE];
+            System.arraycopy(data, offset, block, 0, end - offset);
+            stateHigh ^= getLong(block, 0);
+            stateLow ^= getLong(block, 8);
+            multiply();
+        }
+    }
+
+    // -- Public --
+    //   Role: Hash the final block holding the bit lengths of the AAD and cipher-text.
+    //   Args: aadBits - Length of the additional authenticated data in bits.
+    //         textBits - Length of the cipher-text in bits.
+    // Return: Void
+    //
+    public void updateLengths(long aadBits, long textBits) {
+        stateHigh ^= aadBits;
+        stateLow ^= textBits;
+        multiply();
+    }
+
+    // -- Public --
+    //   Role: Write out the current state.
+    //   Args: out - Array to write the 16 byte hash to.
+    //         offset - Offset to write it at.
+    // Return: Void
+    //
+    public void digest(byte[] out, int offset) {
+        putLong(out, offset, stateHigh);
+        putLong(out, offset + 8, stateLow);
+    }
+
+    // -- Private --
+    //   Role: Multiply the state by H, four bits at a time from the last byte to the first.
+    //   Args: None
+    // Return: Void
+    //
+    private void multiply() {
+        long xh = stateHigh;
+        long xl = stateLow;
+        long zh = 0;
+        long zl = 0;
+
+        for (int i = 15; i >= 0; i--) {
+            int b = (int) ((i < 8 ? xh >>> (8 * (7 - i)) : xl >>> (8 * (15 - i))) & 0xFF);
+
+            // Low nibble, then high nibble, each after shifting the product along by four bits.
+            int rem = (int) (zl & 0xF);
+            zl = (zh << 60) | (zl >>> 4);
+            zh = (zh >>> 4) ^ (LAST4[rem] << 48);
+            zh ^= high[b & 0xF];
+            zl ^= low[b & 0xF];
+
+            rem = (int) (zl & 0xF);
+            zl = (zh << 60) | (zl >>> 4);
+            zh = (zh >>> 4) ^ (LAST4[rem] << 48);
+            zh ^= high[b >>> 4];
+            zl ^= low[b >>> 4];
+        }
+
+        stateHigh = zh;
+        stateLow = zl;
+    }
+
+    // -- Private Static --
+    //   Role: Read eight bytes as a big-endian long.
+    //   Args: in - Array to read from.
+    //         offset - Offset of the first byte.
+    // Return: long
+    //
+    private static long getLong(byte[] in, int offset) {
+        return ((long) TableAES.getWord(in, offset) << 32) | (TableAES.getWord(in, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    // -- Private Static --
+    //   Role: Write a long as eight big-endian bytes.
+    //   Args: out - Array to write to.
+    //         offset - Offset of the first byte.
+    //         value - Value to write.
+    // Return: Void
+    //
+    private static void putLong(byte[] out, int offset, long value) {
+        TableAES.putWord(out, offset, (int) (value >>> 32));
+        TableAES.putWord(out, offset + 4, (int) value);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+HexCodec.java
+
+Description:
+    Lookup table based conversion between bytes and the hex text used for input and output,
+    e.g. "0A 1B 2C". Decoding accepts bytes of one or two digits separated by whitespace, or
+    runs of digits without separators. Encoding writes two upper case digits and a space per
+    byte, a buffer at a time, so no String is created per byte.
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+
+public class HexCodec {
+
+    // Characters written for each value of a nibble.
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+    // Value of each ASCII character as a hex digit, -1 for whitespace and -2 for anything else.
+    private static final byte[] VALUES = new byte[128];
+
+    // Number of bytes encoded into the character buffer at once.
+    private static final int CHUNK_SIZE = 8192;
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = (byte) (Character.isWhitespace(i) ? -1 : -2);
+        }
+        for (int i = 0; i < 16; i++) {
+            VALUES[DIGITS[i]] = (byte) i;
+            VALUES[Character.toLowerCase(DIGITS[i])] = (byte) i;
+        }
+    }
+
+    private HexCodec() {
+    }
+
+    // -- Public Static --
+    //   Role: Decode hex text into bytes.
+    //   Args: text - Hex text, a String, CharBuffer or other CharSequence.
+    // Return: byte[]
+    //
+    public static byte[] decode(CharSequence text) {
+        int length = text.length();
+        byte[] bytes = new byte[(length + 1) / 2];
+        int count = 0;
+        int value = 0;
+        int digits = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            int nibble = c < 128 ? VALUES[c] : -2;
+
+            if (nibble >= 0) {
+                value = (value << 4) | nibble;
+                digits++;
+                if (digits < 2)
+                    continue;
+            } else if (nibble == -2) {
+                throw new NumberFormatException("For input string: \"" + c + "\" under radix 16");
+            } else if (digits == 0) {
+                continue;
+            }
+
+            // Two digits, or a single digit followed by whitespace, make a byte.
+            bytes[count++] = (byte) value;
+            value = 0;
+            digits = 0;
+        }
+        if (digits > 0)
+            bytes[count++] = (byte) value;
+
+        if (count == bytes.length)
+            return bytes;
+        byte[] trimmed = new byte[count];
+        System.arraycopy(bytes, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    // -- Public Static --
+    //   Role: Encode bytes as hex, three characters per byte ("0A ").
+    //   Args: in - Array holding the bytes.
+    //         inOff - Offset of the first byte.
+    //         length - Number of bytes.
+    //         out - Array to write 3 * length characters to.
+    //         outOff - Offset of the first character.
+    // Return: int - Number of characters written.
+    //
+    public static int encode(byte[] in, int inOff, int length, char[] out, int outOff) {
+        int position = outOff;
+        for (int i = inOff; i < inOff + length; i++) {
+            int value = in[i] & 0xFF;
+            out[position++] = DIGITS[value >>> 4];
+            out[position++] = DIGITS[value & 0x0F];
+            out[position++] = ' ';
+        }
+        return position - outOff;
+    }
+
+    // -- Public Static --
+    //   Role: Write bytes as hex, three characters per byte ("0A "), a buffer at a time.
+    //   Args: bytes - Bytes to write.
+    //         writer - Destination, ideally buffered.
+    // Return: Void
+    //
+    public static void write(byte[] bytes, Writer writer) throws IOException {
+        char[] buffer = new char[Math.min(bytes.length, CHUNK_SIZE) * 3];
+        for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+            int count = encode(bytes, offset, Math.min(CHUNK_SIZE, bytes.length - offset), buffer, 0);
+            writer.write(buffer, 0, count);
+        }
+    }
+}
@@ -5,7 +5,6 @@ Description:
     Class which stores the user-input parameters at the start of AESInterface.java
  */
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 
@@ -15,9 +14,9 @@ public class InputParameters {
     private boolean encrypting;
     private int mode;
     private int size;
-    private List<Integer> inputText;
-    private List<Integer> key;
-    private List<Integer> iv;
+    private byte[] inputText;
+    private byte[] key;
+    private byte[] iv;
 
     // -- Constructor --
     //   Role: Creates InputParameters from scanner.
@@ -31,7 +30,7 @@ public class InputParameters {
         int encOrDec = scanner.nextInt();
         setEncrypting(encOrDec == 0);
 
-        // 0 for ECB - 1 for CFB - 2 for CBC - 3 for OFB
+        // 0 for ECB - 1 for CFB - 2 for CBC - 3 for OFB - 4 for CTR - 5 for GCM - 6 for XTS
         int mode = scanner.nextInt();
         setMode(mode);
 
@@ -42,15 +41,50 @@ public class InputParameters {
 
         // The plaintext
         String inputText = scanner.nextLine();
-        setInputText(inputText.split(" "));
+        setInputText(inputText);
 
-        // Ciphertext
+        // Key, 16, 24 or 32 bytes (32 or 64 for XTS)
         String key = scanner.nextLine();
-        setKey(key.split(" "));
+        setKey(key);
 
         // Initialization vector if applicable
         String initializationVector = scanner.nextLine();
-        setIV(initializationVector.split(" "));
+        setIV(initializationVector);
+    }
+
+    // -- Constructor --
+    //   Role: Creates InputParameters from the six lines of input, already read, without prompting.
+    //   Args: lines - The six lines, in the same order as for the console.
+    // Return: this
+    //
+    public InputParameters(String[] lines) {
+        if (lines.length != 6)
+            throw new IllegalArgumentException("Expected 6 lines of input, not " + lines.length);
+        setEncrypting(Integer.parseInt(lines[0].trim()) == 0);
+        setMode(Integer.parseInt(lines[1].trim()));
+        setSize(Integer.parseInt(lines[2].trim()));
+        setInputText(lines[3]);
+        setKey(lines[4]);
+        setIV(lines[5]);
+    }
+
+    // -- Constructor --
+    //   Role: Creates InputParameters directly, for callers which do not read from the console.
+    //   Args: encrypting - True to encrypt, false to decrypt.
+    //         mode - Mode of operation, as numbered for the console.
+    //         size - Transmission size for CFB, or 0 if not applicable.
+    //         inputText - Input for run(), may be empty when streaming.
+    //         key - Key bytes.
+    //         iv - Initialization vector, may be empty if not applicable.
+    // Return: this
+    //
+    public InputParameters(boolean encrypting, int mode, int size, byte[] inputText, byte[] key, byte[] iv) {
+        setEncrypting(encrypting);
+        setMode(mode);
+        setSize(size);
+        this.inputText = inputText;
+        this.key = key;
+        this.iv = iv;
     }
 
     // -- Getters and Setters -- //
@@ -80,35 +114,38 @@ public class InputParameters {
     }
 
     public List<Integer> getInputText() {
+        return AES.toList(inputText);
+    }
+
+    public byte[] getInputBytes() {
         return inputText;
     }
 
-    private void setInputText(String[] input) {
-        this.inputText = new ArrayList<>(input.length);
-        for (int i = 0; i < input.length; i++) {
-            this.inputText.add(Integer.parseInt(input[i], 16)); // Parse each string as a hex value
-        }
+    private void setInputText(String input) {
+        this.inputText = HexCodec.decode(input);
     }
 
     public List<Integer> getKey() {
+        return AES.toList(key);
+    }
+
+    public byte[] getKeyBytes() {
         return key;
     }
 
-    private void setKey(String[] key) {
-        this.key = new ArrayList<>(key.length);
-        for (int i = 0; i < key.length; i++) {
-            this.key.add(Integer.parseInt(key[i], 16)); // Parse each string as a hex value
-        }
+    private void setKey(String key) {
+        this.key = HexCodec.decode(key);
     }
 
     public List<Integer> getIV() {
+        return AES.toList(iv);
+    }
+
+    public byte[] getIVBytes() {
         return iv;
     }
 
-    private void setIV(String[] iv) {
-        this.iv = new ArrayList<>(iv.length);
-        for (int i = 0; i < iv.length; i++) {
-            this.iv.add(Integer.parseInt(iv[i], 16)); // Parse each string as a hex value
-        }
+    private void setIV(String iv) {
+        this.iv = HexCodec.decode(iv);
     }
 }
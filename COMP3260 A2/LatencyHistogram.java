@@ -0,0 +1,133 @@
+/*
+LatencyHistogram.java
+
+Description:
+    Histogram of durations in nanoseconds with log-linear buckets, in the style of HdrHistogram:
+    each power of two is split into SUB_BUCKETS equal buckets, so a value is placed to within
+    1/SUB_BUCKETS (about 6%) of itself from one nanosecond up to about 18 minutes, using a
+    fixed array of counters. Recording is an index calculation and an atomic increment, so it
+    allocates nothing and may be called from any number of threads at once. Reads are not
+    a consistent snapshot while values are being recorded, which is fine for monitoring.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram {
+
+    // Buckets per power of two, a power of two itself.
+    private static final int SUB_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 4;
+
+    // Values from 2^MAX_EXPONENT nanoseconds up all share the last power of two's buckets.
+    private static final int MAX_EXPONENT = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS);
+    private final LongAdder total = new LongAdder(); // Sum of the values recorded
+    private final AtomicLong max = new AtomicLong();
+
+    // -- Public --
+    //   Role: Record a duration.
+    //   Args: nanos - Duration in nanoseconds, negative values count as zero.
+    // Return: Void
+    //
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        total.add(value);
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    // -- Public --
+    //   Role: Value below which a given percentage of the recorded values fall.
+    //   Args: percentile - Percentage, from 0 to 100.
+    // Return: long - Upper end of the bucket holding that value, in nanoseconds; 0 if empty.
+    //
+    public long getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestValue(i), getMax());
+        }
+        return getMax();
+    }
+
+    // -- Public --
+    //   Role: Number of values recorded.
+    //   Args: None
+    // Return: long
+    //
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    // -- Public --
+    //   Role: Clear every value recorded.
+    //   Args: None
+    // Return: Void
+    //
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        max.set(0);
+    }
+
+    // -- Private Static --
+    //   Role: Bucket for a value. Values below SUB_BUCKETS have a bucket each, above that the
+    //         power of two picks a group of buckets and the next bits below it the bucket.
+    //   Args: value - Non-negative value.
+    // Return: int
+    //
+    private static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        int sub = (int) (Math.min(value, (2L << MAX_EXPONENT) - 1) >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // -- Private Static --
+    //   Role: Largest value which falls in a bucket.
+    //   Args: index - Bucket.
+    // Return: long
+    //
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (index % SUB_BUCKETS + 1) * width - 1;
+    }
+
+    // -- Getters -- //
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) getTotal() / count;
+    }
+}
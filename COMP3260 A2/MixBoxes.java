@@ -10,21 +10,21 @@ Description:
 public class MixBoxes {
 
     // Static final mix matrix for Rijndael
-    public static final Integer[][] MIX_BOX = new Integer[][]
+    public static final int[][] MIX_BOX = new int[][]
             {{0x02, 0x03, 0x01, 0x01},
             {0x01, 0x02, 0x03, 0x01},
             {0x01, 0x01, 0x02, 0x03},
             {0x03, 0x01, 0x01, 0x02}};
 
     // Static final inverse mix matrix for Rijndael
-    public static final Integer[][] INVERSE_MIX_BOX = new Integer[][]
+    public static final int[][] INVERSE_MIX_BOX = new int[][]
             {{0x0E, 0x0B, 0x0D, 0x09},
             {0x09, 0x0E, 0x0B, 0x0D},
             {0x0D, 0x09, 0x0E, 0x0B},
             {0x0B, 0x0D, 0x09, 0x0E}};
 
     // Matrix for multiplying by 2 in galois field
-    private static final Integer[] MULTIPLY_TWO = new Integer[]
+    private static final int[] MULTIPLY_TWO = new int[]
             {0x00,0x02,0x04,0x06,0x08,0x0a,0x0c,0x0e,0x10,0x12,0x14,0x16,0x18,0x1a,0x1c,0x1e,
             0x20,0x22,0x24,0x26,0x28,0x2a,0x2c,0x2e,0x30,0x32,0x34,0x36,0x38,0x3a,0x3c,0x3e,
             0x40,0x42,0x44,0x46,0x48,0x4a,0x4c,0x4e,0x50,0x52,0x54,0x56,0x58,0x5a,0x5c,0x5e,
@@ -43,7 +43,7 @@ public class MixBoxes {
             0xfb,0xf9,0xff,0xfd,0xf3,0xf1,0xf7,0xf5,0xeb,0xe9,0xef,0xed,0xe3,0xe1,0xe7,0xe5};
 
     // Matrix for multiplying by 3 in galois field
-    private static final Integer[] MULTIPLY_THREE = new Integer[]
+    private static final int[] MULTIPLY_THREE = new int[]
             {0x00,0x03,0x06,0x05,0x0c,0x0f,0x0a,0x09,0x18,0x1b,0x1e,0x1d,0x14,0x17,0x12,0x11,
             0x30,0x33,0x36,0x35,0x3c,0x3f,0x3a,0x39,0x28,0x2b,0x2e,0x2d,0x24,0x27,0x22,0x21,
             0x60,0x63,0x66,0x65,0x6c,0x6f,0x6a,0x69,0x78,0x7b,0x7e,0x7d,0x74,0x77,0x72,0x71,
@@ -62,7 +62,7 @@ public class MixBoxes {
             0x0b,0x08,0x0d,0x0e,0x07,0x04,0x01,0x02,0x13,0x10,0x15,0x16,0x1f,0x1c,0x19,0x1a};
 
     // Matrix for multiplying by 9 in galois field
-    private static final Integer[] MULTIPLY_NINE = new Integer[]
+    private static final int[] MULTIPLY_NINE = new int[]
             {0x00,0x09,0x12,0x1b,0x24,0x2d,0x36,0x3f,0x48,0x41,0x5a,0x53,0x6c,0x65,0x7e,0x77,
             0x90,0x99,0x82,0x8b,0xb4,0xbd,0xa6,0xaf,0xd8,0xd1,0xca,0xc3,0xfc,0xf5,0xee,0xe7,
             0x3b,0x32,0x29,0x20,0x1f,0x16,0x0d,0x04,0x73,0x7a,0x61,0x68,0x57,0x5e,0x45,0x4c,
@@ -81,7 +81,7 @@ public class MixBoxes {
             0x31,0x38,0x23,0x2a,0x15,0x1c,0x07,0x0e,0x79,0x70,0x6b,0x62,0x5d,0x54,0x4f,0x46};
 
     // Matrix for multiplying by 11 in galois field
-    private static final Integer[] MULTIPLY_ELEVEN = new Integer[]
+    private static final int[] MULTIPLY_ELEVEN = new int[]
             {0x00,0x0b,0x16,0x1d,0x2c,0x27,0x3a,0x31,0x58,0x53,0x4e,0x45,0x74,0x7f,0x62,0x69,
             0xb0,0xbb,0xa6,0xad,0x9c,0x97,0x8a,0x81,0xe8,0xe3,0xfe,0xf5,0xc4,0xcf,0xd2,0xd9,
             0x7b,0x70,0x6d,0x66,0x57,0x5c,0x41,0x4a,0x23,0x28,0x35,0x3e,0x0f,0x04,0x19,0x12,
@@ -100,7 +100,7 @@ public class MixBoxes {
             0xca,0xc1,0xdc,0xd7,0xe6,0xed,0xf0,0xfb,0x92,0x99,0x84,0x8f,0xbe,0xb5,0xa8,0xa3};
 
     // Matrix for multiplying by 13 in galois field
-    private static final Integer[] MULTIPLY_THIRTEEN = new Integer[]
+    private static final int[] MULTIPLY_THIRTEEN = new int[]
             {0x00,0x0d,0x1a,0x17,0x34,0x39,0x2e,0x23,0x68,0x65,0x72,0x7f,0x5c,0x51,0x46,0x4b,
             0xd0,0xdd,0xca,0xc7,0xe4,0xe9,0xfe,0xf3,0xb8,0xb5,0xa2,0xaf,0x8c,0x81,0x96,0x9b,
             0xbb,0xb6,0xa1,0xac,0x8f,0x82,0x95,0x98,0xd3,0xde,0xc9,0xc4,0xe7,0xea,0xfd,0xf0,
@@ -119,7 +119,7 @@ public class MixBoxes {
             0xdc,0xd1,0xc6,0xcb,0xe8,0xe5,0xf2,0xff,0xb4,0xb9,0xae,0xa3,0x80,0x8d,0x9a,0x97};
 
     // Matrix for multiplying by 14 in galois field
-    private static final Integer[] MULTIPLY_FOURTEEN = new Integer[]
+    private static final int[] MULTIPLY_FOURTEEN = new int[]
             {0x00,0x0e,0x1c,0x12,0x38,0x36,0x24,0x2a,0x70,0x7e,0x6c,0x62,0x48,0x46,0x54,0x5a,
             0xe0,0xee,0xfc,0xf2,0xd8,0xd6,0xc4,0xca,0x90,0x9e,0x8c,0x82,0xa8,0xa6,0xb4,0xba,
             0xdb,0xd5,0xc7,0xc9,0xe3,0xed,0xff,0xf1,0xab,0xa5,0xb7,0xb9,0x93,0x9d,0x8f,0x81,
@@ -141,9 +141,9 @@ public class MixBoxes {
     //   Role: Multiply a number with a given value.
     //   Args: value - Number to multiply.
     //         mixBoxValue - Number to multiply with.
-    // Return: Integer - Product
+    // Return: int - Product
     //
-    public static Integer multiply(Integer value, Integer mixBoxValue) {
+    public static int multiply(int value, int mixBoxValue) {
         switch(mixBoxValue) {
             case 1:
                 return value;
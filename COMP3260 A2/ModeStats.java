@@ -0,0 +1,155 @@
+/*
+ModeStats.java
+
+Description:
+    Counters for one mode on one engine: calls, bytes and blocks processed, and a histogram
+    of the time each call took. Kept by AESMetrics, which records into it from every thread
+    running the mode, and registered as an MXBean so the figures can be read through JMX.
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class ModeStats implements ModeStatsMXBean {
+
+    private final String mode;
+    private final String engine;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder blocks = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    // Blocks and time at the last mark, for the recent rate
+    private volatile long markBlocks;
+    private volatile long markNanos = System.nanoTime();
+
+    // -- Constructor --
+    //   Role: Create empty counters.
+    //   Args: mode - Name of the mode.
+    //         engine - Name of the engine.
+    // Return: this
+    //
+    public ModeStats(String mode, String engine) {
+        this.mode = mode;
+        this.engine = engine;
+    }
+
+    // -- Public --
+    //   Role: Record a call. Allocates nothing.
+    //   Args: length - Number of bytes the call processed.
+    //         nanos - Time the call took.
+    // Return: Void
+    //
+    public void record(long length, long nanos) {
+        calls.increment();
+        bytes.add(length);
+        blocks.add((length + AES.BLOCK_SIZE - 1) / AES.BLOCK_SIZE);
+        latency.record(nanos);
+    }
+
+    // -- Public --
+    //   Role: Blocks per second since the last mark, then start a new mark.
+    //   Args: None
+    // Return: double
+    //
+    public double mark() {
+        double rate = getRecentBlocksPerSecond();
+        markBlocks = blocks.sum();
+        markNanos = System.nanoTime();
+        return rate;
+    }
+
+    // -- Public --
+    //   Role: Clear every counter.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    public void reset() {
+        calls.reset();
+        bytes.reset();
+        blocks.reset();
+        latency.reset();
+        markBlocks = 0;
+        markNanos = System.nanoTime();
+    }
+
+    // -- Public --
+    //   Role: One line summary, as in the periodic dump.
+    //   Args: None
+    // Return: String
+    //
+    @Override
+    public String toString() {
+        return String.format("%-4s %-10s calls %10d  bytes %14d  blocks/s %12.0f  latency us p50 %9.1f p99 %9.1f p99.9 %9.1f max %9.1f",
+                mode, engine, getCalls(), getBytes(), getBlocksPerSecond(),
+                getP50LatencyMicros(), getP99LatencyMicros(), getP999LatencyMicros(), getMaxLatencyMicros());
+    }
+
+    // -- Getters -- //
+
+    @Override
+    public String getMode() {
+        return mode;
+    }
+
+    @Override
+    public String getEngine() {
+        return engine;
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getBlocks() {
+        return blocks.sum();
+    }
+
+    @Override
+    public double getBlocksPerSecond() {
+        long nanos = latency.getTotal();
+        return nanos == 0 ? 0 : getBlocks() * 1e9 / nanos;
+    }
+
+    @Override
+    public double getRecentBlocksPerSecond() {
+        long nanos = System.nanoTime() - markNanos;
+        return nanos <= 0 ? 0 : (getBlocks() - markBlocks) * 1e9 / nanos;
+    }
+
+    @Override
+    public double getMeanLatencyMicros() {
+        return latency.getMean() / 1e3;
+    }
+
+    @Override
+    public double getP50LatencyMicros() {
+        return latency.getValueAtPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getP99LatencyMicros() {
+        return latency.getValueAtPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getP999LatencyMicros() {
+        return latency.getValueAtPercentile(99.9) / 1e3;
+    }
+
+    @Override
+    public double getMaxLatencyMicros() {
+        return latency.getMax() / 1e3;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+}
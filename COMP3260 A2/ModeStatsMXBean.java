@@ -0,0 +1,38 @@
+/*
+ModeStatsMXBean.java
+
+Description:
+    Management interface of ModeStats, the attributes and operations seen through JMX.
+    Latencies are per call of run(), update() or doFinal(), in microseconds.
+ */
+
+public interface ModeStatsMXBean {
+
+    String getMode();
+
+    String getEngine();
+
+    long getCalls();
+
+    long getBytes();
+
+    long getBlocks();
+
+    // Blocks per second of time spent inside the calls.
+    double getBlocksPerSecond();
+
+    // Blocks per second since the last dump or reset.
+    double getRecentBlocksPerSecond();
+
+    double getMeanLatencyMicros();
+
+    double getP50LatencyMicros();
+
+    double getP99LatencyMicros();
+
+    double getP999LatencyMicros();
+
+    double getMaxLatencyMicros();
+
+    void reset();
+}
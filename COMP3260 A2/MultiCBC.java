@@ -0,0 +1,166 @@
+/*
+MultiCBC.java
+
+Description:
+    CBC encryption of many small independent messages in one pass. Each block of a CBC
+    message depends on the one before, so a single message can only be encrypted a block at
+    a time, which leaves batch kernels such as the bitsliced cipher or javax.crypto's
+    pipelined AES instructions with nothing to run side by side. Here up to LANES messages
+    under the same key are kept on lanes, and one block from each lane is encrypted per step
+    with a single encryptBlocks() call on the engine's batch cipher. A lane whose message is
+    finished takes the next message waiting, so short and long messages can be mixed freely.
+    Messages under different keys are run as separate groups, each on a cipher of its own.
+    Gives the same output as running CBC on each message, which is truncated to whole blocks
+    in the same way.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MultiCBC {
+
+    // Number of messages encrypted side by side, a full pass of the bitsliced cipher.
+    public static final int LANES = BitslicedAES.LANES;
+
+    private final List<InputParameters> messages;
+    private final AESKey sharedKey; // Key used for every message, or null to use their own
+    private BlockEngine engine; // Engine of the batch cipher, null for the selected one
+
+    // -- Constructor --
+    //   Role: Prepare to encrypt messages, each with its own key and IV.
+    //   Args: messages - Parameters of each message, which must all be for encryption.
+    // Return: this
+    //
+    public MultiCBC(List<InputParameters> messages) {
+        this(messages, null);
+    }
+
+    // -- Constructor --
+    //   Role: Prepare to encrypt messages under one key, each with its own IV.
+    //   Args: messages - Parameters of each message, which must all be for encryption.
+    //                    Their key bytes are ignored.
+    //         sharedKey - Expanded key used for every message, or null to use their own.
+    // Return: this
+    //
+    public MultiCBC(List<InputParameters> messages, AESKey sharedKey) {
+        for (InputParameters message : messages) {
+            if (!message.isEncrypting())
+                throw new IllegalArgumentException("MultiCBC only encrypts, decryption is already parallel in CBC");
+        }
+        this.messages = new ArrayList<>(messages);
+        this.sharedKey = sharedKey;
+    }
+
+    // -- Public --
+    //   Role: Encrypt every message.
+    //   Args: None
+    // Return: List<byte[]> - Cipher-text of each message, in the order they were given.
+    //
+    public List<byte[]> run() {
+        BlockEngine batchEngine = engine != null ? engine : EngineSelector.getSelected();
+        byte[][] outputs = new byte[messages.size()][];
+
+        // Group the messages with at least one block by key, keys are cached so equal bytes
+        // give the same AESKey.
+        Map<AESKey, List<Integer>> groups = new LinkedHashMap<>();
+        for (int m = 0; m < outputs.length; m++) {
+            InputParameters message = messages.get(m);
+            outputs[m] = new byte[message.getInputBytes().length / AES.BLOCK_SIZE * AES.BLOCK_SIZE];
+            if (outputs[m].length == 0)
+                continue;
+            AESKey key = sharedKey != null ? sharedKey : AESKey.of(message.getKeyBytes());
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(m);
+        }
+
+        for (Map.Entry<AESKey, List<Integer>> group : groups.entrySet()) {
+            encryptGroup(batchEngine.newBatchCipher(group.getKey()), group.getValue(), outputs);
+        }
+        return Arrays.asList(outputs);
+    }
+
+    // -- Private --
+    //   Role: Encrypt messages under one key, a block from each lane per call to the cipher.
+    //   Args: cipher - Batch cipher for the key.
+    //         queue - Indexes of the messages, each with at least one block.
+    //         outputs - Cipher-text of each message, written to.
+    // Return: Void
+    //
+    private void encryptGroup(AES cipher, List<Integer> queue, byte[][] outputs) {
+        // Lane state: the message, the offset of its next block and the chained block, which
+        // for every lane sit together so one call encrypts them all.
+        int[] laneMessage = new int[LANES];
+        int[] laneOffset = new int[LANES];
+        byte[] blocks = new byte[LANES * AES.BLOCK_SIZE];
+        int active = 0;
+        int next = 0;
+
+        while (active < LANES && next < queue.size()) {
+            startLane(active++, queue.get(next++), laneMessage, laneOffset, blocks);
+        }
+
+        while (active > 0) {
+            // XOR the next plain-text block of each lane into its previous cipher-text block.
+            for (int lane = 0; lane < active; lane++) {
+                byte[] input = messages.get(laneMessage[lane]).getInputBytes();
+                AESMode.addBytes(blocks, lane * AES.BLOCK_SIZE, input, laneOffset[lane], AES.BLOCK_SIZE);
+            }
+
+            cipher.encryptBlocks(blocks, 0, blocks, 0, active);
+
+            // The blocks are now the cipher-text, which also chains into the lane's next block.
+            for (int lane = 0; lane < active; ) {
+                byte[] output = outputs[laneMessage[lane]];
+                int offset = laneOffset[lane];
+                System.arraycopy(blocks, lane * AES.BLOCK_SIZE, output, offset, AES.BLOCK_SIZE);
+                laneOffset[lane] = offset + AES.BLOCK_SIZE;
+                if (laneOffset[lane] < output.length) {
+                    lane++;
+                } else if (next < queue.size()) {
+                    startLane(lane++, queue.get(next++), laneMessage, laneOffset, blocks);
+                } else {
+                    // No messages left, move the last lane into this one and look at it again.
+                    active--;
+                    laneMessage[lane] = laneMessage[active];
+                    laneOffset[lane] = laneOffset[active];
+                    System.arraycopy(blocks, active * AES.BLOCK_SIZE, blocks, lane * AES.BLOCK_SIZE, AES.BLOCK_SIZE);
+                }
+            }
+        }
+    }
+
+    // -- Private --
+    //   Role: Put a message on a lane, with its IV as the chained block.
+    //   Args: lane - Lane to use.
+    //         message - Index of the message.
+    //         laneMessage, laneOffset, blocks - Lane state, as in encryptGroup().
+    // Return: Void
+    //
+    private void startLane(int lane, int message, int[] laneMessage, int[] laneOffset, byte[] blocks) {
+        byte[] iv = messages.get(message).getIVBytes();
+        laneMessage[lane] = message;
+        laneOffset[lane] = 0;
+        Arrays.fill(blocks, lane * AES.BLOCK_SIZE, (lane + 1) * AES.BLOCK_SIZE, (byte) 0);
+        System.arraycopy(iv, 0, blocks, lane * AES.BLOCK_SIZE, Math.min(iv.length, AES.BLOCK_SIZE));
+    }
+
+    // -- Getters and Setters -- //
+
+    public int getMessageCount() {
+        return messages.size();
+    }
+
+    public AESKey getSharedKey() {
+        return sharedKey;
+    }
+
+    public BlockEngine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(BlockEngine engine) {
+        this.engine = engine;
+    }
+}
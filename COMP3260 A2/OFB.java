@@ -2,12 +2,27 @@
 OFB.java
 
 Description:
-    The OFB (Output Feedback) mode for block ciphers implementation.
+    The OFB (Output Feedback) mode for block ciphers implementation. The keystream is
+    generated inline by default. When prefetching, it is generated ahead of the data by an
+    OFBKeystream on its own thread, and prefetch() starts that before any input is given.
+    Closing the mode stops its producer threads; one that is garbage collected without being
+    closed, such as after a prefetch that was never used, has them stopped by a cleaner.
  */
 
-import java.util.List;
+import java.lang.ref.Cleaner;
+import java.util.Arrays;
 
-public class OFB extends AESMode {
+public class OFB extends AESMode implements AutoCloseable {
+
+    // Number of keystream blocks generated ahead of the data when prefetching.
+    public static final int PREFETCH_BLOCKS = 1024;
+
+    // Stops the producers of modes which were never closed.
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private byte[] encryptPart; // Last keystream block, starting with the IV
+    private boolean prefetching; // Generate the keystream on a producer thread
+    private final Producers producers = new Producers();
 
     // -- Constructor --
     //   Role: Call super constructor
@@ -16,33 +31,172 @@ public class OFB extends AESMode {
     //
     public OFB(InputParameters params) {
         super(params, "OFB");
+        CLEANER.register(this, producers);
     }
 
-    // -- Public  --
-    //   Role: Implement run method of AESMode.
+    // -- Protected --
+    //   Role: Implement runMode method of AESMode.
     //   Args: None
     // Return: Void
     //
     @Override
-    public void run() {
-        // Ensure list is empty and get params to local variables.
-        getOutput().clear();
-        List<Integer> input = getParams().getInputText();
-        List<Integer> key = getParams().getKey();
+    protected void runMode() {
+        // Get params to local variables and size the output.
+        byte[] input = getParams().getInputBytes();
+        int iterations = input.length / AES.BLOCK_SIZE;
+        byte[] output = new byte[iterations * AES.BLOCK_SIZE];
+
+        resetChain();
+        try {
+            processUnits(input, 0, output, 0, iterations);
+        } finally {
+            closeKeystream();
+        }
+        setOutput(output);
+    }
+
+    // -- Public --
+    //   Role: Start generating the keystream for the IV now, ahead of the next run or stream,
+    //         so it is ready by the time the input arrives. Prefetching need not be enabled.
+    //   Args: None
+    // Return: Void
+    //
+    public void prefetch() {
+        if (producers.prefetched == null)
+            producers.prefetched = new OFBKeystream(newCipher(), getParams().getIVBytes(), PREFETCH_BLOCKS);
+    }
+
+    // -- Public --
+    //   Role: Stop every keystream producer, including one started by prefetch() and not yet
+    //         used. The mode may still be run afterwards.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    public void close() {
+        producers.run();
+    }
+
+    // -- Public --
+    //   Role: Abandon a stream, stopping its keystream producer.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    public void reset() {
+        super.reset();
+        closeKeystream();
+    }
+
+    // -- Protected --
+    //   Role: Start the keystream from the IV again.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    protected void resetChain() {
+        closeKeystream();
+        if (producers.prefetched != null) {
+            producers.keystream = producers.prefetched;
+            producers.prefetched = null;
+        } else if (prefetching) {
+            producers.keystream = new OFBKeystream(newCipher(), getParams().getIVBytes(), PREFETCH_BLOCKS);
+        }
+        encryptPart = Arrays.copyOf(getParams().getIVBytes(), AES.BLOCK_SIZE);
+    }
+
+    // -- Protected --
+    //   Role: Encrypt or decrypt whole blocks, encryption is same as decryption in OFB.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         units - Number of blocks.
+    // Return: Void
+    //
+    @Override
+    protected void processUnits(byte[] in, int inOff, byte[] out, int outOff, int units) {
+        OFBKeystream keystream = producers.keystream;
+        if (keystream != null) {
+            keystream.xor(in, inOff, out, outOff, units * AES.BLOCK_SIZE);
+            return;
+        }
 
-        int iterations = input.size() / key.size();
-        List<Integer> encryptPart = getParams().getIV();
+        AES cipher = newCipher();
 
         // Loop through the input text, breaking it up into 16-byte portions.
-        for (int i = 0; i < iterations; i++) {
-            List<Integer> inputPart = input.subList(i * key.size(), (i + 1) * key.size());
+        for (int i = 0; i < units; i++) {
+            int offset = i * AES.BLOCK_SIZE;
+
+            // The next keystream block is the encryption of the last one.
+            cipher.encryptBlock(encryptPart, 0, encryptPart, 0);
+
+            // XOR the keystream with the input to produce the output.
+            addBytes(in, inOff + offset, encryptPart, 0, out, outOff + offset, AES.BLOCK_SIZE);
+        }
+    }
+
+    // -- Protected --
+    //   Role: Encrypt or decrypt the final partial block of a stream with part of a keystream block.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         length - Number of bytes, less than a block.
+    // Return: Void
+    //
+    @Override
+    protected void processFinal(byte[] in, int inOff, byte[] out, int outOff, int length) {
+        OFBKeystream keystream = producers.keystream;
+        if (keystream != null) {
+            keystream.xor(in, inOff, out, outOff, length);
+            return;
+        }
+        newCipher().encryptBlock(encryptPart, 0, encryptPart, 0);
+        addBytes(in, inOff, encryptPart, 0, out, outOff, length);
+    }
+
+    // -- Private --
+    //   Role: Stop the producer of the current keystream, if there is one.
+    //   Args: None
+    // Return: Void
+    //
+    private void closeKeystream() {
+        if (producers.keystream != null) {
+            producers.keystream.close();
+            producers.keystream = null;
+        }
+    }
+
+    // -- Getters and Setters -- //
+
+    public boolean isPrefetching() {
+        return prefetching;
+    }
+
+    public void setPrefetching(boolean prefetching) {
+        this.prefetching = prefetching;
+    }
+
+    // -- Nested Types -- //
+
+    // Keystreams whose producers the mode owns, apart from the mode so that the cleaner
+    // closing them does not keep it reachable.
+    private static class Producers implements Runnable {
 
-            // Encryption is same as decryption in OFB.
-            encryptPart = AES.encrypt(encryptPart, key);
+        OFBKeystream keystream; // Keystream of the current run or stream, if prefetching
+        OFBKeystream prefetched; // Keystream started by prefetch() for the next run or stream
 
-            // XOR the two lists and add result to output.
-            addLists(inputPart, encryptPart);
-            addToOutput(inputPart);
+        @Override
+        public void run() {
+            if (keystream != null) {
+                keystream.close();
+                keystream = null;
+            }
+            if (prefetched != null) {
+                prefetched.close();
+                prefetched = null;
+            }
         }
     }
 }
@@ -0,0 +1,169 @@
+/*
+OFBKeystream.java
+
+Description:
+    OFB keystream generated ahead of the data on a producer thread. The keystream only
+    depends on the key and IV, so a daemon thread keeps a bounded ring buffer of blocks
+    filled while the consumer, the thread processing the data, only XORs. The producer
+    parks when the ring is full and the consumer parks when it is empty; neither takes a
+    lock. There must be a single consumer, and the keystream should be closed once done
+    with so that the producer thread ends.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+public class OFBKeystream implements AutoCloseable {
+
+    private final AES cipher; // Used by the producer only
+    private final byte[] last; // Last block produced, starting with the IV
+    private final byte[] ring; // Keystream blocks, block n at slot n % capacity
+    private final int capacity; // Number of blocks the ring holds
+    private final Thread producer;
+
+    private volatile long produced; // Number of blocks written to the ring
+    private volatile long consumed; // Number of blocks fully used by the consumer
+    private int offset; // Bytes already used of the next block, consumer only
+
+    private volatile boolean closed;
+    private volatile boolean producerWaiting;
+    private volatile boolean consumerWaiting;
+    private volatile Thread consumer;
+    private volatile RuntimeException failure; // Thrown by the producer
+
+    // -- Constructor --
+    //   Role: Start generating the keystream for an IV.
+    //   Args: cipher - Block cipher for the key, handed over to the producer thread.
+    //         iv - Initialisation vector, padded with zeros to a block if short.
+    //         capacity - Number of blocks to generate ahead of the consumer.
+    // Return: this
+    //
+    public OFBKeystream(AES cipher, byte[] iv, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Keystream capacity must be at least one block");
+        this.cipher = cipher;
+        this.last = Arrays.copyOf(iv, AES.BLOCK_SIZE);
+        this.capacity = capacity;
+        this.ring = new byte[capacity * AES.BLOCK_SIZE];
+
+        producer = new Thread(this::produce, "ofb-keystream");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    // -- Public --
+    //   Role: XOR input with the next bytes of the keystream, waiting for the producer if it
+    //         has fallen behind. The output may be the same range of the same array as the input.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         length - Number of bytes.
+    // Return: Void
+    //
+    public void xor(byte[] in, int inOff, byte[] out, int outOff, int length) {
+        while (length > 0) {
+            long block = consumed;
+            awaitBlock(block);
+
+            int slot = (int) (block % capacity) * AES.BLOCK_SIZE + offset;
+            int take = Math.min(length, AES.BLOCK_SIZE - offset);
+            AESMode.addBytes(in, inOff, ring, slot, out, outOff, take);
+            inOff += take;
+            outOff += take;
+            length -= take;
+
+            offset += take;
+            if (offset == AES.BLOCK_SIZE) {
+                // Hand the slot back to the producer.
+                offset = 0;
+                consumed = block + 1;
+                if (producerWaiting)
+                    LockSupport.unpark(producer);
+            }
+        }
+    }
+
+    // -- Public --
+    //   Role: Stop the producer. Keystream already handed out is unaffected.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(producer);
+    }
+
+    // -- Private --
+    //   Role: Body of the producer thread: encrypt the last block into the next free slot
+    //         until closed, parking while the ring is full.
+    //   Args: None
+    // Return: Void
+    //
+    private void produce() {
+        try {
+            while (!closed) {
+                long next = produced;
+                if (next - consumed >= capacity) {
+                    // Announce the wait before checking again, so a consumer freeing a slot
+                    // in between either is seen here or sees the flag and unparks.
+                    producerWaiting = true;
+                    if (next - consumed >= capacity && !closed)
+                        LockSupport.park(this);
+                    producerWaiting = false;
+                    continue;
+                }
+
+                cipher.encryptBlock(last, 0, last, 0);
+                System.arraycopy(last, 0, ring, (int) (next % capacity) * AES.BLOCK_SIZE, AES.BLOCK_SIZE);
+                produced = next + 1;
+                if (consumerWaiting)
+                    LockSupport.unpark(consumer);
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+            closed = true;
+            if (consumerWaiting)
+                LockSupport.unpark(consumer);
+        }
+    }
+
+    // -- Private --
+    //   Role: Wait until a block has been produced.
+    //   Args: block - Index of the block.
+    // Return: Void
+    //
+    private void awaitBlock(long block) {
+        if (produced > block)
+            return;
+
+        consumer = Thread.currentThread();
+        while (produced <= block) {
+            if (failure != null)
+                throw new IllegalStateException("Keystream producer failed", failure);
+            if (closed)
+                throw new IllegalStateException("Keystream is closed");
+
+            consumerWaiting = true;
+            if (produced <= block && !closed)
+                LockSupport.park(this);
+            consumerWaiting = false;
+        }
+    }
+
+    // -- Getters -- //
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Number of whole blocks generated and not yet used.
+    public int getAvailable() {
+        return (int) (produced - consumed);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
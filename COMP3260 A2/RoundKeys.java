@@ -2,92 +2,178 @@
 RoundKeys.java
 
 Description:
-    This class takes a single 16 byte key as an input, and extrapolates it into 11 keys
-    as per the key expansion rules of Rijndael (AES). A single public method exists
-    for getting the key of a particular round.
+    This class takes a single 16, 24 or 32 byte key as an input (AES-128, AES-192 or AES-256),
+    and extrapolates it into 11, 13 or 15 round keys as per the key expansion rules of
+    Rijndael (AES). The keys are held as a flat array of 32-bit words, one word per column,
+    four words per round. The schedule for the
+    equivalent inverse cipher of FIPS-197 (rounds reversed, inverse mix columns applied to
+    the middle ones) is derived once here as well, so decryption has the same round
+    structure as encryption.
  */
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class RoundKeys {
 
     // Key schedule from https://en.wikipedia.org/wiki/Rijndael_key_schedule
-    public static final Integer[] ROUND_CONSTANTS = new Integer[]
+    public static final int[] ROUND_CONSTANTS = new int[]
             {0x01, 0x02, 0x04, 0x08, 0x10, 0x20, 0x40, 0x80, 0x1b, 0x36};
 
-    private List<Integer[][]> keys;
+    private int rounds; // 10, 12 or 14
+    private int[] words;
+    private int[] decryptWords; // Schedule of the equivalent inverse cipher
 
     // -- Constructor --
     //   Role: Round keys from initial key.
+    //   Args: key - Key to create the others from, 16, 24 or 32 bytes.
+    // Return: this
+    //
+    public RoundKeys(byte[] key) {
+        rounds = rounds(key.length);
+        words = new int[4 * (rounds + 1)];
+        generateKeys(key);
+        decryptWords = inverseKeys(words);
+    }
+
+    // -- Constructor --
+    //   Role: Round keys from initial key given as a list.
     //   Args: key - Key to create the others from.
     // Return: this
     //
     public RoundKeys(List<Integer> key) {
-        keys = new ArrayList<>(11);
-        generateKeys(key);
+        this(AES.toBytes(key));
+    }
+
+    // -- Public Static --
+    //   Role: Number of rounds for a key length.
+    //   Args: keyLength - Length of the key in bytes.
+    // Return: int - 10, 12 or 14.
+    //
+    public static int rounds(int keyLength) {
+        switch (keyLength) {
+            case 16:
+                return 10;
+            case 24:
+                return 12;
+            case 32:
+                return 14;
+            default:
+                throw new IllegalArgumentException("AES keys are 16, 24 or 32 bytes, not " + keyLength);
+        }
     }
 
     // -- Private --
-    //   Role: Generate 11 round keys.
-    //   Args: key - Key for round 1.
+    //   Role: Generate the round keys.
+    //   Args: key - Key for round 1, Nk words long.
     // Return: Void
     //
-    private void generateKeys(List<Integer> key) {
-        // Turn the first key from list into a 4x4 matrix.
-        Integer[][] firstKey = new Integer[4][4];
-        for (int i = 0; i < 16; i++) {
-            int x = i / 4;
-            int y = i % 4;
-            firstKey[y][x] = key.get(i);
+    private void generateKeys(byte[] key) {
+        int nk = key.length / 4;
+
+        // The key is the first Nk words, one word per column.
+        for (int i = 0; i < nk; i++) {
+            words[i] = ((key[i * 4] & 0xFF) << 24)
+                    | ((key[i * 4 + 1] & 0xFF) << 16)
+                    | ((key[i * 4 + 2] & 0xFF) << 8)
+                    | (key[i * 4 + 3] & 0xFF);
         }
-        keys.add(firstKey);
 
-        // Generate the remaining 10 rounds.
-        for (int i = 1; i < 11; i++) {
-            keys.add(getNextRoundKey(i, keys.get(i-1)));
+        // Generate the remaining words.
+        for (int i = nk; i < words.length; i++) {
+            int temp = words[i - 1];
+
+            if (i % nk == 0) {
+                // If the word starts a new key length,
+                // Rotate one place, substitute with S-Box, and XOR with the round constant.
+                temp = substituteWord((temp << 8) | (temp >>> 24));
+                temp ^= ROUND_CONSTANTS[i / nk - 1] << 24;
+            } else if (nk > 6 && i % nk == 4) {
+                // 256-bit keys also substitute the word half way through.
+                temp = substituteWord(temp);
+            }
+
+            // XOR with the word one key length back.
+            words[i] = words[i - nk] ^ temp;
         }
     }
 
-    // -- Private --
-    //   Role: Generate a specific round key given the last round.
-    //   Args: round - Round number to generate.
-    //         lastKey - Key from the last round.
-    // Return: Integer[][] - Round key.
+    // -- Private Static --
+    //   Role: Reverse the order of the round keys and apply inverse mix columns to the
+    //         middle rounds, giving the key schedule of the equivalent inverse cipher.
+    //   Args: keys - Encryption key schedule.
+    // Return: int[] - Decryption key schedule.
     //
-    private Integer[][] getNextRoundKey(Integer round, Integer[][] lastKey) {
-        Integer[][] key = new Integer[4][4];
-        // Loop through each position of the key (4x4)
-        for (int row = 0; row < 4; row++) {
+    private static int[] inverseKeys(int[] keys) {
+        int[] inverse = new int[keys.length];
+        int rounds = keys.length / 4 - 1;
+        for (int round = 0; round <= rounds; round++) {
             for (int col = 0; col < 4; col++) {
+                int word = keys[(rounds - round) * 4 + col];
+                if (round > 0 && round < rounds)
+                    word = inverseMixWord(word);
+                inverse[round * 4 + col] = word;
+            }
+        }
+        return inverse;
+    }
 
-                if (col == 0) {
-                    // If the byte is in the first column,
-                    // Shift rows of one place back, substitute with S-Box, and XOR with value of last key.
-                    key[row][col] = lastKey[(row+1)%4][3];
-                    key[row][col] = AES.substitute(key[row][col]);
-                    key[row][col] ^= lastKey[row][col];
-
-                    if (row == 0)
-                        // If the byte is in the top-left corner also XOR with the round constant.
-                        key[row][col] ^= ROUND_CONSTANTS[round-1];
-                }
-                else {
-                    // XOR value of last key and one place back.
-                    key[row][col] = key[row][col-1] ^ lastKey[row][col];
-                }
-
+    // -- Private Static --
+    //   Role: Inverse mix columns of a single column word.
+    //   Args: word - Column, row 0 in the top byte.
+    // Return: int
+    //
+    private static int inverseMixWord(int word) {
+        int[][] matrix = MixBoxes.INVERSE_MIX_BOX;
+        int result = 0;
+        for (int row = 0; row < 4; row++) {
+            int value = 0;
+            for (int col = 0; col < 4; col++) {
+                value ^= MixBoxes.multiply((word >>> (24 - 8 * col)) & 0xFF, matrix[row][col]);
             }
+            result |= value << (24 - 8 * row);
         }
-        return key;
+        return result;
+    }
+
+    // -- Private --
+    //   Role: Run every byte of a word through S-Box.
+    //   Args: word - Word to substitute.
+    // Return: int
+    //
+    private static int substituteWord(int word) {
+        return (AES.substitute(word >>> 24) << 24)
+                | (AES.substitute((word >>> 16) & 0xFF) << 16)
+                | (AES.substitute((word >>> 8) & 0xFF) << 8)
+                | AES.substitute(word & 0xFF);
+    }
+
+    // -- Public --
+    //   Role: Number of rounds of the key schedule.
+    //   Args: None
+    // Return: int - 10, 12 or 14.
+    //
+    public int getRounds() {
+        return rounds;
+    }
+
+    // -- Public --
+    //   Role: Get the whole key schedule. Round i starts at index i * 4.
+    //         The array is shared and must not be modified.
+    //   Args: None
+    // Return: int[] - Key schedule.
+    //
+    public int[] getWords() {
+        return words;
     }
 
     // -- Public --
-    //   Role: Get round key for a particular round.
-    //   Args: i - Round number to get.
-    // Return: Integer[][] - Round key.
+    //   Role: Get the key schedule of the equivalent inverse cipher. Round i starts at index
+    //         i * 4, in the order they are used for decryption. The array is shared and must
+    //         not be modified.
+    //   Args: None
+    // Return: int[] - Decryption key schedule.
     //
-    public Integer[][] get(int i) {
-        return keys.get(i);
+    public int[] getDecryptWords() {
+        return decryptWords;
     }
 }
@@ -0,0 +1,346 @@
+/*
+TableAES.java
+
+Description:
+    Table driven implementation of the AES block cipher. SubBytes, ShiftRows and MixColumns
+    of a round are combined into four 256 entry tables of 32-bit words (Te0..Te3, and
+    Td0..Td3 for the inverse), generated at start up from the S-boxes and MixBoxes.java.
+    A round is then sixteen table lookups and XORs on the four column words of the state.
+    The rounds are written out in full, with the extra rounds of AES-192 and AES-256 last.
+    Produces exactly the same output as the reference implementation in AES.java.
+ */
+
+public class TableAES extends AES {
+
+    // Combined round tables for encryption.
+    private static final int[] TE0 = new int[256];
+    private static final int[] TE1 = new int[256];
+    private static final int[] TE2 = new int[256];
+    private static final int[] TE3 = new int[256];
+
+    // Combined round tables for decryption.
+    private static final int[] TD0 = new int[256];
+    private static final int[] TD1 = new int[256];
+    private static final int[] TD2 = new int[256];
+    private static final int[] TD3 = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            // Column produced by a single byte: MixBoxes row multipliers applied to its substitution.
+            int s = AES.substitute(i);
+            int word = (MixBoxes.multiply(s, 2) << 24) | (s << 16) | (s << 8) | MixBoxes.multiply(s, 3);
+            TE0[i] = word;
+            TE1[i] = Integer.rotateRight(word, 8);
+            TE2[i] = Integer.rotateRight(word, 16);
+            TE3[i] = Integer.rotateRight(word, 24);
+
+            int inv = AES.inverseSubstitute(i);
+            word = (MixBoxes.multiply(inv, 14) << 24) | (MixBoxes.multiply(inv, 9) << 16)
+                    | (MixBoxes.multiply(inv, 13) << 8) | MixBoxes.multiply(inv, 11);
+            TD0[i] = word;
+            TD1[i] = Integer.rotateRight(word, 8);
+            TD2[i] = Integer.rotateRight(word, 16);
+            TD3[i] = Integer.rotateRight(word, 24);
+        }
+    }
+
+    private int[] encryptKeys; // Round keys in encryption order
+    private int[] decryptKeys; // Equivalent inverse cipher schedule, shared with the key
+    private final int[] state = new int[4]; // Column words of the block being processed
+
+    // -- Constructor --
+    //   Role: Create a table driven block cipher from an expanded key.
+    //         An instance must not be shared between threads.
+    //   Args: key - Expanded key.
+    // Return: this
+    //
+    public TableAES(AESKey key) {
+        super(key);
+        encryptKeys = key.getWords();
+        decryptKeys = key.getDecryptWords();
+    }
+
+    // -- Public --
+    //   Role: Encrypt a single 16 byte block. Input and output may overlap.
+    //   Args: in - Array holding the block to encrypt.
+    //         inOff - Offset of the block within in.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    // Return: Void
+    //
+    @Override
+    public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        int[] s = state;
+        s[0] = getWord(in, inOff);
+        s[1] = getWord(in, inOff + 4);
+        s[2] = getWord(in, inOff + 8);
+        s[3] = getWord(in, inOff + 12);
+        encryptWords(encryptKeys, s, 0);
+        putWord(out, outOff, s[0]);
+        putWord(out, outOff + 4, s[1]);
+        putWord(out, outOff + 8, s[2]);
+        putWord(out, outOff + 12, s[3]);
+    }
+
+    // -- Public --
+    //   Role: Decrypt a single 16 byte block. Input and output may overlap.
+    //   Args: in - Array holding the block to decrypt.
+    //         inOff - Offset of the block within in.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    // Return: Void
+    //
+    @Override
+    public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        int[] s = state;
+        s[0] = getWord(in, inOff);
+        s[1] = getWord(in, inOff + 4);
+        s[2] = getWord(in, inOff + 8);
+        s[3] = getWord(in, inOff + 12);
+        decryptWords(decryptKeys, s, 0);
+        putWord(out, outOff, s[0]);
+        putWord(out, outOff + 4, s[1]);
+        putWord(out, outOff + 8, s[2]);
+        putWord(out, outOff + 12, s[3]);
+    }
+
+    // -- Private Static --
+    //   Role: Encrypt the four column words of a block. The rounds are written out in full
+    //         rather than looped over, as the JIT does not unroll a loop this large. The rounds
+    //         every key size has come first, so the round key offsets are constants, and the
+    //         extra rounds of the longer keys follow behind a test of the schedule length.
+    //   Args: k - Round keys, 44, 52 or 60 words.
+    //         s - Array holding the column words, replaced with the encrypted words.
+    //         off - Offset of the first word within s.
+    // Return: Void
+    //
+    private static void encryptWords(int[] k, int[] s, int off) {
+        // Before first round, add round key.
+        int s0 = s[off] ^ k[0];
+        int s1 = s[off + 1] ^ k[1];
+        int s2 = s[off + 2] ^ k[2];
+        int s3 = s[off + 3] ^ k[3];
+        int t0, t1, t2, t3;
+
+        // Rounds 1 through 9, from s to t and back.
+        t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xFF] ^ TE2[(s2 >>> 8) & 0xFF] ^ TE3[s3 & 0xFF] ^ k[4];
+        t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xFF] ^ TE2[(s3 >>> 8) & 0xFF] ^ TE3[s0 & 0xFF] ^ k[5];
+        t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xFF] ^ TE2[(s0 >>> 8) & 0xFF] ^ TE3[s1 & 0xFF] ^ k[6];
+        t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xFF] ^ TE2[(s1 >>> 8) & 0xFF] ^ TE3[s2 & 0xFF] ^ k[7];
+
+        s0 = TE0[t0 >>> 24] ^ TE1[(t1 >>> 16) & 0xFF] ^ TE2[(t2 >>> 8) & 0xFF] ^ TE3[t3 & 0xFF] ^ k[8];
+        s1 = TE0[t1 >>> 24] ^ TE1[(t2 >>> 16) & 0xFF] ^ TE2[(t3 >>> 8) & 0xFF] ^ TE3[t0 & 0xFF] ^ k[9];
+        s2 = TE0[t2 >>> 24] ^ TE1[(t3 >>> 16) & 0xFF] ^ TE2[(t0 >>> 8) & 0xFF] ^ TE3[t1 & 0xFF] ^ k[10];
+        s3 = TE0[t3 >>> 24] ^ TE1[(t0 >>> 16) & 0xFF] ^ TE2[(t1 >>> 8) & 0xFF] ^ TE3[t2 & 0xFF] ^ k[11];
+
+        t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xFF] ^ TE2[(s2 >>> 8) & 0xFF] ^ TE3[s3 & 0xFF] ^ k[12];
+        t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xFF] ^ TE2[(s3 >>> 8) & 0xFF] ^ TE3[s0 & 0xFF] ^ k[13];
+        t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xFF] ^ TE2[(s0 >>> 8) & 0xFF] ^ TE3[s1 & 0xFF] ^ k[14];
+        t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xFF] ^ TE2[(s1 >>> 8) & 0xFF] ^ TE3[s2 & 0xFF] ^ k[15];
+
+        s0 = TE0[t0 >>> 24] ^ TE1[(t1 >>> 16) & 0xFF] ^ TE2[(t2 >>> 8) & 0xFF] ^ TE3[t3 & 0xFF] ^ k[16];
+        s1 = TE0[t1 >>> 24] ^ TE1[(t2 >>> 16) & 0xFF] ^ TE2[(t3 >>> 8) & 0xFF] ^ TE3[t0 & 0xFF] ^ k[17];
+        s2 = TE0[t2 >>> 24] ^ TE1[(t3 >>> 16) & 0xFF] ^ TE2[(t0 >>> 8) & 0xFF] ^ TE3[t1 & 0xFF] ^ k[18];
+        s3 = TE0[t3 >>> 24] ^ TE1[(t0 >>> 16) & 0xFF] ^ TE2[(t1 >>> 8) & 0xFF] ^ TE3[t2 & 0xFF] ^ k[19];
+
+        t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xFF] ^ TE2[(s2 >>> 8) & 0xFF] ^ TE3[s3 & 0xFF] ^ k[20];
+        t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xFF] ^ TE2[(s3 >>> 8) & 0xFF] ^ TE3[s0 & 0xFF] ^ k[21];
+        t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xFF] ^ TE2[(s0 >>> 8) & 0xFF] ^ TE3[s1 & 0xFF] ^ k[22];
+        t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xFF] ^ TE2[(s1 >>> 8) & 0xFF] ^ TE3[s2 & 0xFF] ^ k[23];
+
+        s0 = TE0[t0 >>> 24] ^ TE1[(t1 >>> 16) & 0xFF] ^ TE2[(t2 >>> 8) & 0xFF] ^ TE3[t3 & 0xFF] ^ k[24];
+        s1 = TE0[t1 >>> 24] ^ TE1[(t2 >>> 16) & 0xFF] ^ TE2[(t3 >>> 8) & 0xFF] ^ TE3[t0 & 0xFF] ^ k[25];
+        s2 = TE0[t2 >>> 24] ^ TE1[(t3 >>> 16) & 0xFF] ^ TE2[(t0 >>> 8) & 0xFF] ^ TE3[t1 & 0xFF] ^ k[26];
+        s3 = TE0[t3 >>> 24] ^ TE1[(t0 >>> 16) & 0xFF] ^ TE2[(t1 >>> 8) & 0xFF] ^ TE3[t2 & 0xFF] ^ k[27];
+
+        t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xFF] ^ TE2[(s2 >>> 8) & 0xFF] ^ TE3[s3 & 0xFF] ^ k[28];
+        t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xFF] ^ TE2[(s3 >>> 8) & 0xFF] ^ TE3[s0 & 0xFF] ^ k[29];
+        t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xFF] ^ TE2[(s0 >>> 8) & 0xFF] ^ TE3[s1 & 0xFF] ^ k[30];
+        t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xFF] ^ TE2[(s1 >>> 8) & 0xFF] ^ TE3[s2 & 0xFF] ^ k[31];
+
+        s0 = TE0[t0 >>> 24] ^ TE1[(t1 >>> 16) & 0xFF] ^ TE2[(t2 >>> 8) & 0xFF] ^ TE3[t3 & 0xFF] ^ k[32];
+        s1 = TE0[t1 >>> 24] ^ TE1[(t2 >>> 16) & 0xFF] ^ TE2[(t3 >>> 8) & 0xFF] ^ TE3[t0 & 0xFF] ^ k[33];
+        s2 = TE0[t2 >>> 24] ^ TE1[(t3 >>> 16) & 0xFF] ^ TE2[(t0 >>> 8) & 0xFF] ^ TE3[t1 & 0xFF] ^ k[34];
+        s3 = TE0[t3 >>> 24] ^ TE1[(t0 >>> 16) & 0xFF] ^ TE2[(t1 >>> 8) & 0xFF] ^ TE3[t2 & 0xFF] ^ k[35];
+
+        t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xFF] ^ TE2[(s2 >>> 8) & 0xFF] ^ TE3[s3 & 0xFF] ^ k[36];
+        t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xFF] ^ TE2[(s3 >>> 8) & 0xFF] ^ TE3[s0 & 0xFF] ^ k[37];
+        t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xFF] ^ TE2[(s0 >>> 8) & 0xFF] ^ TE3[s1 & 0xFF] ^ k[38];
+        t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xFF] ^ TE2[(s1 >>> 8) & 0xFF] ^ TE3[s2 & 0xFF] ^ k[39];
+
+        // Rounds 10 and 11 for 192-bit keys, 10 through 13 for 256-bit keys.
+        int last = k.length - 4;
+        if (last > 40) {
+            s0 = TE0[t0 >>> 24] ^ TE1[(t1 >>> 16) & 0xFF] ^ TE2[(t2 >>> 8) & 0xFF] ^ TE3[t3 & 0xFF] ^ k[40];
+            s1 = TE0[t1 >>> 24] ^ TE1[(t2 >>> 16) & 0xFF] ^ TE2[(t3 >>> 8) & 0xFF] ^ TE3[t0 & 0xFF] ^ k[41];
+            s2 = TE0[t2 >>> 24] ^ TE1[(t3 >>> 16) & 0xFF] ^ TE2[(t0 >>> 8) & 0xFF] ^ TE3[t1 & 0xFF] ^ k[42];
+            s3 = TE0[t3 >>> 24] ^ TE1[(t0 >>> 16) & 0xFF] ^ TE2[(t1 >>> 8) & 0xFF] ^ TE3[t2 & 0xFF] ^ k[43];
+
+            t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xFF] ^ TE2[(s2 >>> 8) & 0xFF] ^ TE3[s3 & 0xFF] ^ k[44];
+            t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xFF] ^ TE2[(s3 >>> 8) & 0xFF] ^ TE3[s0 & 0xFF] ^ k[45];
+            t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xFF] ^ TE2[(s0 >>> 8) & 0xFF] ^ TE3[s1 & 0xFF] ^ k[46];
+            t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xFF] ^ TE2[(s1 >>> 8) & 0xFF] ^ TE3[s2 & 0xFF] ^ k[47];
+
+            if (last > 48) {
+                s0 = TE0[t0 >>> 24] ^ TE1[(t1 >>> 16) & 0xFF] ^ TE2[(t2 >>> 8) & 0xFF] ^ TE3[t3 & 0xFF] ^ k[48];
+                s1 = TE0[t1 >>> 24] ^ TE1[(t2 >>> 16) & 0xFF] ^ TE2[(t3 >>> 8) & 0xFF] ^ TE3[t0 & 0xFF] ^ k[49];
+                s2 = TE0[t2 >>> 24] ^ TE1[(t3 >>> 16) & 0xFF] ^ TE2[(t0 >>> 8) & 0xFF] ^ TE3[t1 & 0xFF] ^ k[50];
+                s3 = TE0[t3 >>> 24] ^ TE1[(t0 >>> 16) & 0xFF] ^ TE2[(t1 >>> 8) & 0xFF] ^ TE3[t2 & 0xFF] ^ k[51];
+
+                t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xFF] ^ TE2[(s2 >>> 8) & 0xFF] ^ TE3[s3 & 0xFF] ^ k[52];
+                t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xFF] ^ TE2[(s3 >>> 8) & 0xFF] ^ TE3[s0 & 0xFF] ^ k[53];
+                t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xFF] ^ TE2[(s0 >>> 8) & 0xFF] ^ TE3[s1 & 0xFF] ^ k[54];
+                t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xFF] ^ TE2[(s1 >>> 8) & 0xFF] ^ TE3[s2 & 0xFF] ^ k[55];
+            }
+        }
+
+        // Final round (Does not mix columns)
+        s[off] = substituteWord(t0, t1, t2, t3) ^ k[last];
+        s[off + 1] = substituteWord(t1, t2, t3, t0) ^ k[last + 1];
+        s[off + 2] = substituteWord(t2, t3, t0, t1) ^ k[last + 2];
+        s[off + 3] = substituteWord(t3, t0, t1, t2) ^ k[last + 3];
+    }
+
+    // -- Private Static --
+    //   Role: Decrypt the four column words of a block, written out in full as for encryptWords.
+    //   Args: k - Round keys of the equivalent inverse cipher, 44, 52 or 60 words.
+    //         s - Array holding the column words, replaced with the decrypted words.
+    //         off - Offset of the first word within s.
+    // Return: Void
+    //
+    private static void decryptWords(int[] k, int[] s, int off) {
+        // Before first round, add round key.
+        int s0 = s[off] ^ k[0];
+        int s1 = s[off + 1] ^ k[1];
+        int s2 = s[off + 2] ^ k[2];
+        int s3 = s[off + 3] ^ k[3];
+        int t0, t1, t2, t3;
+
+        // Rounds 1 through 9, from s to t and back.
+        t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xFF] ^ TD2[(s2 >>> 8) & 0xFF] ^ TD3[s1 & 0xFF] ^ k[4];
+        t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xFF] ^ TD2[(s3 >>> 8) & 0xFF] ^ TD3[s2 & 0xFF] ^ k[5];
+        t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xFF] ^ TD2[(s0 >>> 8) & 0xFF] ^ TD3[s3 & 0xFF] ^ k[6];
+        t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xFF] ^ TD2[(s1 >>> 8) & 0xFF] ^ TD3[s0 & 0xFF] ^ k[7];
+
+        s0 = TD0[t0 >>> 24] ^ TD1[(t3 >>> 16) & 0xFF] ^ TD2[(t2 >>> 8) & 0xFF] ^ TD3[t1 & 0xFF] ^ k[8];
+        s1 = TD0[t1 >>> 24] ^ TD1[(t0 >>> 16) & 0xFF] ^ TD2[(t3 >>> 8) & 0xFF] ^ TD3[t2 & 0xFF] ^ k[9];
+        s2 = TD0[t2 >>> 24] ^ TD1[(t1 >>> 16) & 0xFF] ^ TD2[(t0 >>> 8) & 0xFF] ^ TD3[t3 & 0xFF] ^ k[10];
+        s3 = TD0[t3 >>> 24] ^ TD1[(t2 >>> 16) & 0xFF] ^ TD2[(t1 >>> 8) & 0xFF] ^ TD3[t0 & 0xFF] ^ k[11];
+
+        t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xFF] ^ TD2[(s2 >>> 8) & 0xFF] ^ TD3[s1 & 0xFF] ^ k[12];
+        t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xFF] ^ TD2[(s3 >>> 8) & 0xFF] ^ TD3[s2 & 0xFF] ^ k[13];
+        t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xFF] ^ TD2[(s0 >>> 8) & 0xFF] ^ TD3[s3 & 0xFF] ^ k[14];
+        t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xFF] ^ TD2[(s1 >>> 8) & 0xFF] ^ TD3[s0 & 0xFF] ^ k[15];
+
+        s0 = TD0[t0 >>> 24] ^ TD1[(t3 >>> 16) & 0xFF] ^ TD2[(t2 >>> 8) & 0xFF] ^ TD3[t1 & 0xFF] ^ k[16];
+        s1 = TD0[t1 >>> 24] ^ TD1[(t0 >>> 16) & 0xFF] ^ TD2[(t3 >>> 8) & 0xFF] ^ TD3[t2 & 0xFF] ^ k[17];
+        s2 = TD0[t2 >>> 24] ^ TD1[(t1 >>> 16) & 0xFF] ^ TD2[(t0 >>> 8) & 0xFF] ^ TD3[t3 & 0xFF] ^ k[18];
+        s3 = TD0[t3 >>> 24] ^ TD1[(t2 >>> 16) & 0xFF] ^ TD2[(t1 >>> 8) & 0xFF] ^ TD3[t0 & 0xFF] ^ k[19];
+
+        t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xFF] ^ TD2[(s2 >>> 8) & 0xFF] ^ TD3[s1 & 0xFF] ^ k[20];
+        t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xFF] ^ TD2[(s3 >>> 8) & 0xFF] ^ TD3[s2 & 0xFF] ^ k[21];
+        t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xFF] ^ TD2[(s0 >>> 8) & 0xFF] ^ TD3[s3 & 0xFF] ^ k[22];
+        t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xFF] ^ TD2[(s1 >>> 8) & 0xFF] ^ TD3[s0 & 0xFF] ^ k[23];
+
+        s0 = TD0[t0 >>> 24] ^ TD1[(t3 >>> 16) & 0xFF] ^ TD2[(t2 >>> 8) & 0xFF] ^ TD3[t1 & 0xFF] ^ k[24];
+        s1 = TD0[t1 >>> 24] ^ TD1[(t0 >>> 16) & 0xFF] ^ TD2[(t3 >>> 8) & 0xFF] ^ TD3[t2 & 0xFF] ^ k[25];
+        s2 = TD0[t2 >>> 24] ^ TD1[(t1 >>> 16) & 0xFF] ^ TD2[(t0 >>> 8) & 0xFF] ^ TD3[t3 & 0xFF] ^ k[26];
+        s3 = TD0[t3 >>> 24] ^ TD1[(t2 >>> 16) & 0xFF] ^ TD2[(t1 >>> 8) & 0xFF] ^ TD3[t0 & 0xFF] ^ k[27];
+
+        t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xFF] ^ TD2[(s2 >>> 8) & 0xFF] ^ TD3[s1 & 0xFF] ^ k[28];
+        t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xFF] ^ TD2[(s3 >>> 8) & 0xFF] ^ TD3[s2 & 0xFF] ^ k[29];
+        t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xFF] ^ TD2[(s0 >>> 8) & 0xFF] ^ TD3[s3 & 0xFF] ^ k[30];
+        t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xFF] ^ TD2[(s1 >>> 8) & 0xFF] ^ TD3[s0 & 0xFF] ^ k[31];
+
+        s0 = TD0[t0 >>> 24] ^ TD1[(t3 >>> 16) & 0xFF] ^ TD2[(t2 >>> 8) & 0xFF] ^ TD3[t1 & 0xFF] ^ k[32];
+        s1 = TD0[t1 >>> 24] ^ TD1[(t0 >>> 16) & 0xFF] ^ TD2[(t3 >>> 8) & 0xFF] ^ TD3[t2 & 0xFF] ^ k[33];
+        s2 = TD0[t2 >>> 24] ^ TD1[(t1 >>> 16) & 0xFF] ^ TD2[(t0 >>> 8) & 0xFF] ^ TD3[t3 & 0xFF] ^ k[34];
+        s3 = TD0[t3 >>> 24] ^ TD1[(t2 >>> 16) & 0xFF] ^ TD2[(t1 >>> 8) & 0xFF] ^ TD3[t0 & 0xFF] ^ k[35];
+
+        t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xFF] ^ TD2[(s2 >>> 8) & 0xFF] ^ TD3[s1 & 0xFF] ^ k[36];
+        t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xFF] ^ TD2[(s3 >>> 8) & 0xFF] ^ TD3[s2 & 0xFF] ^ k[37];
+        t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xFF] ^ TD2[(s0 >>> 8) & 0xFF] ^ TD3[s3 & 0xFF] ^ k[38];
+        t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xFF] ^ TD2[(s1 >>> 8) & 0xFF] ^ TD3[s0 & 0xFF] ^ k[39];
+
+        // Rounds 10 and 11 for 192-bit keys, 10 through 13 for 256-bit keys.
+        int last = k.length - 4;
+        if (last > 40) {
+            s0 = TD0[t0 >>> 24] ^ TD1[(t3 >>> 16) & 0xFF] ^ TD2[(t2 >>> 8) & 0xFF] ^ TD3[t1 & 0xFF] ^ k[40];
+            s1 = TD0[t1 >>> 24] ^ TD1[(t0 >>> 16) & 0xFF] ^ TD2[(t3 >>> 8) & 0xFF] ^ TD3[t2 & 0xFF] ^ k[41];
+            s2 = TD0[t2 >>> 24] ^ TD1[(t1 >>> 16) & 0xFF] ^ TD2[(t0 >>> 8) & 0xFF] ^ TD3[t3 & 0xFF] ^ k[42];
+            s3 = TD0[t3 >>> 24] ^ TD1[(t2 >>> 16) & 0xFF] ^ TD2[(t1 >>> 8) & 0xFF] ^ TD3[t0 & 0xFF] ^ k[43];
+
+            t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xFF] ^ TD2[(s2 >>> 8) & 0xFF] ^ TD3[s1 & 0xFF] ^ k[44];
+            t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xFF] ^ TD2[(s3 >>> 8) & 0xFF] ^ TD3[s2 & 0xFF] ^ k[45];
+            t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xFF] ^ TD2[(s0 >>> 8) & 0xFF] ^ TD3[s3 & 0xFF] ^ k[46];
+            t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xFF] ^ TD2[(s1 >>> 8) & 0xFF] ^ TD3[s0 & 0xFF] ^ k[47];
+
+            if (last > 48) {
+                s0 = TD0[t0 >>> 24] ^ TD1[(t3 >>> 16) & 0xFF] ^ TD2[(t2 >>> 8) & 0xFF] ^ TD3[t1 & 0xFF] ^ k[48];
+                s1 = TD0[t1 >>> 24] ^ TD1[(t0 >>> 16) & 0xFF] ^ TD2[(t3 >>> 8) & 0xFF] ^ TD3[t2 & 0xFF] ^ k[49];
+                s2 = TD0[t2 >>> 24] ^ TD1[(t1 >>> 16) & 0xFF] ^ TD2[(t0 >>> 8) & 0xFF] ^ TD3[t3 & 0xFF] ^ k[50];
+                s3 = TD0[t3 >>> 24] ^ TD1[(t2 >>> 16) & 0xFF] ^ TD2[(t1 >>> 8) & 0xFF] ^ TD3[t0 & 0xFF] ^ k[51];
+
+                t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xFF] ^ TD2[(s2 >>> 8) & 0xFF] ^ TD3[s1 & 0xFF] ^ k[52];
+                t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xFF] ^ TD2[(s3 >>> 8) & 0xFF] ^ TD3[s2 & 0xFF] ^ k[53];
+                t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xFF] ^ TD2[(s0 >>> 8) & 0xFF] ^ TD3[s3 & 0xFF] ^ k[54];
+                t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xFF] ^ TD2[(s1 >>> 8) & 0xFF] ^ TD3[s0 & 0xFF] ^ k[55];
+            }
+        }
+
+        // Final round (Does not mix columns)
+        s[off] = inverseSubstituteWord(t0, t3, t2, t1) ^ k[last];
+        s[off + 1] = inverseSubstituteWord(t1, t0, t3, t2) ^ k[last + 1];
+        s[off + 2] = inverseSubstituteWord(t2, t1, t0, t3) ^ k[last + 2];
+        s[off + 3] = inverseSubstituteWord(t3, t2, t1, t0) ^ k[last + 3];
+    }
+
+    // -- Private Static --
+    //   Role: Build one column of the final round: shift rows then substitute bytes.
+    //   Args: a, b, c, d - Columns supplying rows 0, 1, 2 and 3 respectively.
+    // Return: int
+    //
+    private static int substituteWord(int a, int b, int c, int d) {
+        return (AES.substitute(a >>> 24) << 24)
+                | (AES.substitute((b >>> 16) & 0xFF) << 16)
+                | (AES.substitute((c >>> 8) & 0xFF) << 8)
+                | AES.substitute(d & 0xFF);
+    }
+
+    // -- Private Static --
+    //   Role: Build one column of the final inverse round: inverse shift rows then inverse substitute.
+    //   Args: a, b, c, d - Columns supplying rows 0, 1, 2 and 3 respectively.
+    // Return: int
+    //
+    private static int inverseSubstituteWord(int a, int b, int c, int d) {
+        return (AES.inverseSubstitute(a >>> 24) << 24)
+                | (AES.inverseSubstitute((b >>> 16) & 0xFF) << 16)
+                | (AES.inverseSubstitute((c >>> 8) & 0xFF) << 8)
+                | AES.inverseSubstitute(d & 0xFF);
+    }
+
+    // -- Public Static --
+    //   Role: Read four bytes as a big-endian column word.
+    //   Args: in - Array to read from.
+    //         offset - Offset of the first byte.
+    // Return: int
+    //
+    public static int getWord(byte[] in, int offset) {
+        return ((in[offset] & 0xFF) << 24) | ((in[offset + 1] & 0xFF) << 16)
+                | ((in[offset + 2] & 0xFF) << 8) | (in[offset + 3] & 0xFF);
+    }
+
+    // -- Public Static --
+    //   Role: Write a column word as four big-endian bytes.
+    //   Args: out - Array to write to.
+    //         offset - Offset of the first byte.
+    //         word - Word to write.
+    // Return: Void
+    //
+    public static void putWord(byte[] out, int offset, int word) {
+        out[offset] = (byte) (word >>> 24);
+        out[offset + 1] = (byte) (word >>> 16);
+        out[offset + 2] = (byte) (word >>> 8);
+        out[offset + 3] = (byte) word;
+    }
+}
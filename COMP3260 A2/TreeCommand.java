@@ -0,0 +1,520 @@
+/*
+TreeCommand.java
+
+Description:
+    Command line mode which encrypts or decrypts every file under a directory into the same
+    layout under another. It runs as a pipeline of three stages joined by bounded queues:
+    a walker which lists the files of the tree, a pool of workers each of which takes a whole
+    file, reads it a chunk at a time and runs the chosen AESMode over the chunks in order, and
+    a writer. Reading is done by the workers rather than a stage of its own, as the chunks of
+    a file must reach its mode in order and a shared reader would hold every worker to the
+    pace of one file; with several workers one reads while another encrypts, so the disk and
+    the processors are still kept busy together. Every file has its own mode and IV, so files
+    are encrypted concurrently even in CBC, where the blocks of one file cannot be, and no
+    worker waits on another's file. A stage which gets ahead of the next blocks on the full
+    queue between them, so only a fixed number of chunks is held at once, however many or
+    large the files. Symbolic links are not followed, so nothing outside the tree is read, and
+    the output directory may not lie inside the tree, where it would be walked too.
+    When encrypting, a random IV is made for each file and written at the start of its output
+    (none for ECB, 12 bytes for GCM, 16 otherwise); when decrypting it is read back from there.
+    A file or directory which cannot be processed, such as a file whose GCM tag does not
+    match or a directory which cannot be read, is reported on standard error, any output of
+    it deleted, and the other files carry on.
+
+    Usage: AESInterface --tree dir --out dir --mode ECB|CFB|CBC|OFB|CTR|GCM|XTS --key hex
+                        [--size n] [--decrypt] [--workers n] [--chunk-size n]
+                        [--engine auto|reference|table|bitsliced|jce]
+    ECB and CBC add no padding, so a file which is not a whole number of 16 byte blocks fails
+    in those modes, as does a file shorter than 16 bytes in XTS; use CTR, OFB, CFB or GCM
+    for trees of arbitrary files.
+    The engine measurements of --engine auto are kept between runs only in the file named by
+    -Daes.engine.cache=file (see EngineSelector.java).
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class TreeCommand {
+
+    // Files or chunks each queue holds, per worker.
+    private static final int CHUNKS_PER_WORKER = 2;
+
+    // Marks the end of the files for the workers.
+    private static final Job END_OF_TREE = new Job(null, null);
+
+    // Marks the end of the chunks for the writer.
+    private static final Chunk END = new Chunk(null, null, 0, true);
+
+    private Path input;
+    private Path output;
+    private boolean encrypting;
+    private int mode;
+    private int size;
+    private byte[] key;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = 1024 * 1024;
+    private BlockEngine engine; // Null to calibrate
+
+    private final SecureRandom random = new SecureRandom();
+    private BlockingQueue<Job> toWorkers; // Files found, each to be taken by one worker
+    private BlockingQueue<Chunk> toWriter; // Chunks processed, in the order of each file
+
+    // Totals, each kept by the one stage which counts it
+    private long files;
+    private long failures;
+    private long skipped; // Entries the walker could not read
+    private long written;
+
+    // -- Constructor --
+    //   Role: Parse the command line arguments.
+    //   Args: args - Arguments given to AESInterface.
+    // Return: this
+    //
+    public TreeCommand(String[] args) {
+        String in = null, out = null, modeName = null, hexKey = null;
+        String engineName = "auto";
+        encrypting = true;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--tree":
+                    in = value(args, ++i);
+                    break;
+                case "--out":
+                    out = value(args, ++i);
+                    break;
+                case "--mode":
+                    modeName = value(args, ++i).toUpperCase();
+                    break;
+                case "--key":
+                    hexKey = value(args, ++i);
+                    break;
+                case "--size":
+                    size = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--decrypt":
+                    encrypting = false;
+                    break;
+                case "--workers":
+                    workers = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--chunk-size":
+                    chunkSize = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--engine":
+                    engineName = value(args, ++i);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        if (in == null || out == null || modeName == null || hexKey == null)
+            throw new IllegalArgumentException("--tree, --out, --mode and --key are required");
+        if (!FileCommand.MODES.contains(modeName))
+            throw new IllegalArgumentException("Unknown mode " + modeName);
+        if (modeName.equals("CFB") && (size < 1 || size > AES.BLOCK_SIZE))
+            throw new IllegalArgumentException("CFB needs --size between 1 and 16");
+        if (workers < 1)
+            throw new IllegalArgumentException("--workers must be at least 1");
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("--chunk-size must be at least 1");
+
+        input = Paths.get(in).toAbsolutePath().normalize();
+        output = Paths.get(out).toAbsolutePath().normalize();
+        if (output.startsWith(input))
+            throw new IllegalArgumentException("--out must not be inside --tree");
+        mode = FileCommand.MODES.indexOf(modeName);
+        key = HexCodec.decode(hexKey);
+
+        if (!engineName.equalsIgnoreCase("auto"))
+            engine = BlockEngine.forName(engineName);
+
+        // Reject a key the mode cannot use now, rather than once for every file.
+        newMode(new byte[ivLength()]);
+    }
+
+    // -- Public Static --
+    //   Role: Whether command line arguments ask for a directory tree.
+    //   Args: args - Arguments given to AESInterface.
+    // Return: boolean
+    //
+    public static boolean isTree(String[] args) {
+        for (String arg : args) {
+            if (arg.equals("--tree"))
+                return true;
+        }
+        return false;
+    }
+
+    // -- Public --
+    //   Role: Run every file of the tree through the pipeline. This thread is the walker,
+    //         and returns once every file has been written or has failed.
+    //   Args: None
+    // Return: long - Number of bytes written.
+    //
+    public long run() throws IOException {
+        if (!Files.isDirectory(input))
+            throw new NotDirectoryException(input.toString());
+        if (realPath(output).startsWith(input.toRealPath()))
+            throw new IllegalArgumentException("--out must not be inside --tree, even through a link");
+
+        if (engine == null) {
+            engine = EngineSelector.getSelected();
+            System.err.println(EngineSelector.report());
+        } else {
+            System.err.println("AES engine: " + engine.getName());
+        }
+
+        toWorkers = new ArrayBlockingQueue<>(workers * CHUNKS_PER_WORKER);
+        toWriter = new ArrayBlockingQueue<>(workers * CHUNKS_PER_WORKER);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        for (int i = 0; i < workers; i++) {
+            pool.execute(this::process);
+        }
+        Thread writer = new Thread(this::write, "aes-tree-writer");
+        writer.start();
+
+        try {
+            try {
+                Files.walkFileTree(input, new Walker());
+            } finally {
+                // Let every stage finish what it has, in turn.
+                for (int i = 0; i < workers; i++) {
+                    toWorkers.put(END_OF_TREE);
+                }
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                toWriter.put(END);
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            writer.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted processing " + input);
+        }
+        return written;
+    }
+
+    // -- Private Static --
+    //   Role: Resolve the links of a path which may not exist yet, through the deepest part of
+    //         it which does.
+    //   Args: path - Absolute, normalised path.
+    // Return: Path
+    //
+    private static Path realPath(Path path) throws IOException {
+        Path existing = path;
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null)
+            return path;
+        return existing.toRealPath().resolve(existing.relativize(path));
+    }
+
+    // -- Private --
+    //   Role: Crypto stage, run by each worker: take files until the end of the tree.
+    //   Args: None
+    // Return: Void
+    //
+    private void process() {
+        try {
+            Job job;
+            while ((job = toWorkers.take()) != END_OF_TREE) {
+                process(job);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // -- Private --
+    //   Role: Read a file a chunk at a time, run each through the file's mode and queue it for
+    //         the writer, waiting whenever the queue is full. Decryption first takes the IV off
+    //         the front. Whatever goes wrong fails this file alone, which still ends with a
+    //         last chunk so the writer closes it; reading stops early once the writer fails it.
+    //   Args: job - File to process.
+    // Return: Void
+    //
+    private void process(Job job) throws InterruptedException {
+        boolean ended = false;
+
+        try (InputStream in = Files.newInputStream(job.source, LinkOption.NOFOLLOW_LINKS)) {
+            byte[] iv = new byte[ivLength()];
+            if (encrypting) {
+                random.nextBytes(iv);
+                job.header = iv;
+            } else if (in.readNBytes(iv, 0, iv.length) < iv.length) {
+                throw new IOException("too short to hold its IV");
+            }
+            job.mode = newMode(iv);
+
+            // A short read is the end of the file, so a file which ends on a chunk boundary
+            // is followed by an empty last chunk.
+            while (!ended && !job.failed) {
+                byte[] data = new byte[chunkSize];
+                int length = in.readNBytes(data, 0, chunkSize);
+                Chunk chunk = process(job, data, length, length < chunkSize);
+                toWriter.put(chunk);
+                ended = chunk.last;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Includes input the mode cannot process, such as a GCM tag which does not match.
+            job.fail(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+
+        if (!ended)
+            toWriter.put(new Chunk(job, null, 0, true));
+    }
+
+    // -- Private --
+    //   Role: Run one chunk through the mode of its file, finishing the mode on the last.
+    //   Args: job - File the chunk is from.
+    //         data - Array holding the chunk.
+    //         length - Number of bytes in the chunk.
+    //         last - Whether this is the end of the file.
+    // Return: Chunk - Processed chunk.
+    //
+    private Chunk process(Job job, byte[] data, int length, boolean last) {
+        byte[] out = new byte[job.mode.getOutputSize(length)];
+        int count = job.mode.update(data, 0, length, out, 0);
+        if (last) {
+            byte[] tail = job.mode.doFinal();
+            byte[] all = new byte[count + tail.length];
+            System.arraycopy(out, 0, all, 0, count);
+            System.arraycopy(tail, 0, all, count, tail.length);
+            out = all;
+            count = all.length;
+        }
+        return new Chunk(job, out, count, last);
+    }
+
+    // -- Private --
+    //   Role: Writer stage: write processed chunks to their files, creating each file and its
+    //         directories on its first chunk, until the end is reached.
+    //   Args: None
+    // Return: Void
+    //
+    private void write() {
+        try {
+            Chunk chunk;
+            while ((chunk = toWriter.take()) != END) {
+                Job job = chunk.job;
+                try {
+                    if (!job.failed) {
+                        if (job.out == null) {
+                            Files.createDirectories(job.target.getParent());
+                            job.out = Files.newOutputStream(job.target);
+                            job.out.write(job.header);
+                            written += job.header.length;
+                        }
+                        job.out.write(chunk.data, 0, chunk.length);
+                        written += chunk.length;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    job.fail(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+                }
+                if (chunk.last)
+                    finish(job);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // -- Private --
+    //   Role: Close the output of a file, deleting it if the file failed at any stage.
+    //   Args: job - File written.
+    // Return: Void
+    //
+    private void finish(Job job) {
+        try {
+            if (job.out != null)
+                job.out.close();
+        } catch (IOException e) {
+            job.fail(e.getMessage());
+        }
+        if (!job.failed)
+            return;
+
+        failures++;
+        System.err.println("Could not process " + job.source + ": " + job.error);
+        try {
+            // Only output this run created; a file which failed before it was opened has none.
+            if (job.out != null)
+                Files.deleteIfExists(job.target);
+        } catch (IOException e) {
+            System.err.println("Could not delete " + job.target + ": " + e.getMessage());
+        }
+    }
+
+    // -- Private --
+    //   Role: Create the mode for one file.
+    //   Args: iv - IV of the file.
+    // Return: AESMode
+    //
+    private AESMode newMode(byte[] iv) {
+        AESMode aesMode = AESInterface.createMode(new InputParameters(encrypting, mode, size, new byte[0], key, iv));
+        aesMode.setEngine(engine);
+        return aesMode;
+    }
+
+    // -- Private --
+    //   Role: Length of the IV kept at the start of each encrypted file.
+    //   Args: None
+    // Return: int
+    //
+    private int ivLength() {
+        switch (FileCommand.MODES.get(mode)) {
+            case "ECB":
+                return 0;
+            case "GCM":
+                return 12;
+            default:
+                return AES.BLOCK_SIZE;
+        }
+    }
+
+    // -- Private Static --
+    //   Role: Get the value following an option.
+    //   Args: args - All arguments.
+    //         i - Index of the value.
+    // Return: String
+    //
+    private static String value(String[] args, int i) {
+        if (i >= args.length)
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    // -- Getters -- //
+
+    public Path getInput() {
+        return input;
+    }
+
+    public Path getOutput() {
+        return output;
+    }
+
+    public boolean isEncrypting() {
+        return encrypting;
+    }
+
+    public String getModeName() {
+        return FileCommand.MODES.get(mode);
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    public long getFailures() {
+        return failures + skipped;
+    }
+
+    // Walker stage: queues each regular file of the tree for the workers, waiting whenever the
+    // queue is full. Links are not followed, and an entry which cannot be read is reported and
+    // skipped rather than ending the walk.
+    private class Walker extends SimpleFileVisitor<Path> {
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+            if (!attributes.isRegularFile())
+                return FileVisitResult.CONTINUE;
+            try {
+                toWorkers.put(new Job(file, output.resolve(input.relativize(file).toString())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted processing " + input);
+            }
+            files++;
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+            skip(file, e);
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path directory, IOException e) {
+            // The files listed before the error have been queued, the rest are skipped.
+            if (e != null)
+                skip(directory, e);
+            return FileVisitResult.CONTINUE;
+        }
+
+        private void skip(Path path, IOException e) {
+            // File system exceptions such as access denied carry only the path as their message.
+            String reason = e.getMessage();
+            if (reason == null || reason.equals(path.toString()))
+                reason = e.getClass().getSimpleName();
+            files++;
+            skipped++;
+            System.err.println("Could not read " + path + ": " + reason);
+        }
+    }
+
+    // One file passing through the pipeline.
+    private static class Job {
+
+        final Path source;
+        final Path target;
+        AESMode mode; // Used by the worker which took the file only
+        byte[] header = new byte[0]; // Written before the output, handed over with the first chunk
+        OutputStream out; // Used by the writer only
+        volatile boolean failed;
+        volatile String error;
+
+        Job(Path source, Path target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        synchronized void fail(String message) {
+            if (!failed) {
+                error = message;
+                failed = true;
+            }
+        }
+    }
+
+    // Part of a file, before or after processing.
+    private static class Chunk {
+
+        final Job job;
+        final byte[] data;
+        final int length;
+        final boolean last; // Whether this is the end of the file
+
+        Chunk(Job job, byte[] data, int length, boolean last) {
+            this.job = job;
+            this.data = data;
+            this.length = length;
+            this.last = last;
+        }
+    }
+}
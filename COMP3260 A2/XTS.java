@@ -0,0 +1,338 @@
+/*
+XTS.java
+
+Description:
+    The XTS (XEX with ciphertext stealing, IEEE 1619) mode for sector addressed storage.
+    The key is two keys of equal length, AES-128 or AES-256 as in the standard: the first
+    encrypts the data and the second the tweak, which is the sector number as a 128-bit little-endian value added to the IV.
+    The encrypted tweak is multiplied by alpha in GF(2^128) for each block of the sector.
+    Every sector is independent of the others, so sectors are processed in parallel and
+    any range of sectors can be encrypted or decrypted on its own, including in place in
+    a memory mapped image. A sector which is not a whole number of blocks is finished
+    with ciphertext stealing, so sectors need only be at least 16 bytes.
+ */
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+public class XTS extends AESMode {
+
+    // Sector size used unless another is set.
+    public static final int DEFAULT_SECTOR_SIZE = 512;
+
+    // Largest part of an image mapped at once by processImage().
+    private static final int IMAGE_WINDOW = 16 * 1024 * 1024;
+
+    // Byte arrays viewed as little-endian longs, the byte order of the tweak.
+    private static final VarHandle LONGS_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final AESKey tweakKey; // Second half of the key
+    private int sectorSize = DEFAULT_SECTOR_SIZE;
+    private long sector; // Sector the next unit of a stream belongs to
+
+    // -- Constructor --
+    //   Role: Split the key in two and call super constructor.
+    //   Args: params - The parameters as defined when the program is initiated.
+    // Return: this
+    //
+    public XTS(InputParameters params) {
+        super(params, "XTS", AESKey.of(half(params.getKeyBytes(), 0)));
+        tweakKey = AESKey.of(half(params.getKeyBytes(), 1));
+    }
+
+    // -- Private Static --
+    //   Role: One of the two keys making up an XTS key.
+    //   Args: key - XTS key, the data key followed by the tweak key.
+    //         half - 0 for the data key, 1 for the tweak key.
+    // Return: byte[]
+    //
+    private static byte[] half(byte[] key, int half) {
+        if (key.length != 32 && key.length != 64)
+            throw new IllegalArgumentException("XTS needs a 32 or 64 byte key, the data key followed by the tweak key");
+        return Arrays.copyOfRange(key, half * key.length / 2, (half + 1) * key.length / 2);
+    }
+
+    // -- Protected --
+    //   Role: Implement runMode method of AESMode. A final sector shorter than the others is
+    //         also processed, as long as it is at least one block.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    protected void runMode() {
+        byte[] input = getParams().getInputBytes();
+        byte[] output = new byte[input.length];
+        process(input, 0, output, 0, input.length, 0);
+        setOutput(output);
+    }
+
+    // -- Public --
+    //   Role: XTS works in sectors.
+    //   Args: None
+    // Return: int
+    //
+    @Override
+    public int getUnitSize() {
+        return sectorSize;
+    }
+
+    // -- Protected --
+    //   Role: Start the stream from the first sector again.
+    //   Args: None
+    // Return: Void
+    //
+    @Override
+    protected void resetChain() {
+        sector = 0;
+    }
+
+    // -- Protected --
+    //   Role: Encrypt or decrypt whole sectors, continuing the stream.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         units - Number of sectors.
+    // Return: Void
+    //
+    @Override
+    protected void processUnits(byte[] in, int inOff, byte[] out, int outOff, int units) {
+        process(in, inOff, out, outOff, units * sectorSize, sector);
+        sector += units;
+    }
+
+    // -- Protected --
+    //   Role: Encrypt or decrypt a final sector shorter than the others.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to.
+    //         outOff - Offset to write the result at.
+    //         length - Number of bytes, less than a sector.
+    // Return: Void
+    //
+    @Override
+    protected void processFinal(byte[] in, int inOff, byte[] out, int outOff, int length) {
+        process(in, inOff, out, outOff, length, sector);
+        sector++;
+    }
+
+    // -- Public --
+    //   Role: Encrypt or decrypt a run of consecutive sectors. Only the last may be short.
+    //   Args: in - Array holding the input.
+    //         inOff - Offset of the first input byte.
+    //         out - Array to write the result to, may be the same range as the input.
+    //         outOff - Offset to write the result at.
+    //         length - Number of bytes.
+    //         firstSector - Sector number of the first byte.
+    // Return: Void
+    //
+    public void process(byte[] in, int inOff, byte[] out, int outOff, int length, long firstSector) {
+        if (length <= 0)
+            return;
+        if (length % sectorSize != 0 && length % sectorSize < AES.BLOCK_SIZE)
+            throw new IllegalStateException(String.format("XTS sectors must be at least %d bytes", AES.BLOCK_SIZE));
+
+        boolean encrypting = getParams().isEncrypting();
+        int sectors = (length + sectorSize - 1) / sectorSize;
+
+        forEachBlockRange(sectors, (from, to) -> {
+            AES cipher = newBatchCipher();
+            AES tweakCipher = newTweakCipher();
+            byte[] buffer = new byte[sectorSize + AES.BLOCK_SIZE];
+            long[] tweaks = new long[2 * (sectorSize / AES.BLOCK_SIZE + 1)];
+
+            for (int s = from; s < to; s++) {
+                int offset = s * sectorSize;
+                int bytes = Math.min(sectorSize, length - offset);
+                processSector(cipher, tweakCipher, encrypting, in, inOff + offset, out, outOff + offset,
+                        bytes, firstSector + s, buffer, tweaks);
+            }
+        });
+    }
+
+    // -- Public --
+    //   Role: Encrypt or decrypt a range of sectors of an image file in place, mapping only
+    //         that range, so the rest of the image is not read or written.
+    //   Args: image - Image file, open for reading and writing.
+    //         firstSector - First sector to process.
+    //         sectors - Number of sectors.
+    // Return: Void
+    //
+    public void processImage(FileChannel image, long firstSector, long sectors) throws IOException {
+        long end = (firstSector + sectors) * sectorSize;
+        if (end > image.size())
+            throw new IllegalArgumentException("Sector range runs past the end of the image");
+
+        long windowSectors = Math.max(1, IMAGE_WINDOW / sectorSize);
+        byte[] window = new byte[(int) (Math.min(sectors, windowSectors) * sectorSize)];
+        for (long done = 0; done < sectors; done += windowSectors) {
+            long position = (firstSector + done) * sectorSize;
+            int length = (int) (Math.min(windowSectors, sectors - done) * sectorSize);
+
+            MappedByteBuffer mapped = image.map(FileChannel.MapMode.READ_WRITE, position, length);
+            mapped.get(window, 0, length);
+            process(window, 0, window, 0, length, firstSector + done);
+            mapped.position(0);
+            mapped.put(window, 0, length);
+        }
+    }
+
+    // -- Private --
+    //   Role: Encrypt or decrypt one sector. The tweaks for all of its blocks are computed
+    //         first, so the blocks go through the cipher in a single call.
+    //   Args: cipher - Cipher for the data key.
+    //         tweakCipher - Cipher for the tweak key.
+    //         encrypting - Whether to encrypt or decrypt.
+    //         in, inOff, out, outOff - Input and output of the sector.
+    //         length - Length of the sector, at least a block.
+    //         sectorNumber - Number of the sector.
+    //         buffer - Scratch space of a sector and a block.
+    //         tweaks - Scratch space for the tweak of every block, as little-endian halves.
+    // Return: Void
+    //
+    private void processSector(AES cipher, AES tweakCipher, boolean encrypting, byte[] in, int inOff,
+                               byte[] out, int outOff, int length, long sectorNumber, byte[] buffer, long[] tweaks) {
+        int blocks = length / AES.BLOCK_SIZE;
+        int partial = length % AES.BLOCK_SIZE;
+
+        // Encrypted tweak for the first block, doubled for each one after it.
+        tweakValue(sectorNumber, buffer, 0);
+        tweakCipher.encryptBlock(buffer, 0, buffer, 0);
+        long low = getLongLE(buffer, 0);
+        long high = getLongLE(buffer, 8);
+        for (int j = 0; j <= blocks; j++) {
+            tweaks[2 * j] = low;
+            tweaks[2 * j + 1] = high;
+            long carry = high >> 63;
+            high = (high << 1) | (low >>> 63);
+            low = (low << 1) ^ (carry & 0x87);
+        }
+
+        // With stealing, the last whole block is handled separately below.
+        int whole = partial == 0 ? blocks : blocks - 1;
+        xorTweaks(in, inOff, buffer, 0, tweaks, 0, whole);
+        if (encrypting)
+            cipher.encryptBlocks(buffer, 0, buffer, 0, whole);
+        else
+            cipher.decryptBlocks(buffer, 0, buffer, 0, whole);
+        xorTweaks(buffer, 0, out, outOff, tweaks, 0, whole);
+        if (partial == 0)
+            return;
+
+        // Ciphertext stealing. Decryption uses the two last tweaks the other way around.
+        int last = whole * AES.BLOCK_SIZE;
+        int first = encrypting ? whole : whole + 1;
+        int second = encrypting ? whole + 1 : whole;
+        byte[] block = Arrays.copyOfRange(in, inOff + last, inOff + last + AES.BLOCK_SIZE);
+        byte[] tail = Arrays.copyOfRange(in, inOff + last + AES.BLOCK_SIZE, inOff + length);
+
+        xorTweaks(block, 0, block, 0, tweaks, first, 1);
+        if (encrypting)
+            cipher.encryptBlock(block, 0, block, 0);
+        else
+            cipher.decryptBlock(block, 0, block, 0);
+        xorTweaks(block, 0, block, 0, tweaks, first, 1);
+
+        // The short final output is the start of that block, whose end is stolen for the
+        // block made from the short input.
+        System.arraycopy(block, 0, out, outOff + last + AES.BLOCK_SIZE, partial);
+        System.arraycopy(tail, 0, block, 0, partial);
+
+        xorTweaks(block, 0, block, 0, tweaks, second, 1);
+        if (encrypting)
+            cipher.encryptBlock(block, 0, block, 0);
+        else
+            cipher.decryptBlock(block, 0, block, 0);
+        xorTweaks(block, 0, out, outOff + last, tweaks, second, 1);
+    }
+
+    // -- Private --
+    //   Role: Create a block cipher for the tweak key, on the same engine as the data.
+    //   Args: None
+    // Return: AES
+    //
+    private AES newTweakCipher() {
+        if (getEngine() != null)
+            return getEngine().newCipher(tweakKey);
+        if (isTableDriven())
+            return new TableAES(tweakKey);
+        return new AES(tweakKey);
+    }
+
+    // -- Private --
+    //   Role: Tweak value for a sector: the IV plus the sector number, as 128-bit little-endian.
+    //   Args: sectorNumber - Number of the sector.
+    //         dest - Array to write the 16 byte value to.
+    //         offset - Offset to write it at.
+    // Return: Void
+    //
+    private void tweakValue(long sectorNumber, byte[] dest, int offset) {
+        byte[] iv = Arrays.copyOf(getParams().getIVBytes(), AES.BLOCK_SIZE);
+        long low = getLongLE(iv, 0) + sectorNumber;
+        long high = getLongLE(iv, 8) + (Long.compareUnsigned(low, sectorNumber) < 0 ? 1 : 0);
+        putLongLE(dest, offset, low);
+        putLongLE(dest, offset + 8, high);
+    }
+
+    // -- Private Static --
+    //   Role: XOR consecutive blocks with their tweaks.
+    //   Args: in - Array holding the blocks.
+    //         inOff - Offset of the first block.
+    //         out - Array to write the result to, may be the same as in.
+    //         outOff - Offset to write the result at.
+    //         tweaks - Tweaks as little-endian halves.
+    //         first - Index of the tweak for the first block.
+    //         blocks - Number of blocks.
+    // Return: Void
+    //
+    private static void xorTweaks(byte[] in, int inOff, byte[] out, int outOff, long[] tweaks, int first, int blocks) {
+        for (int j = 0; j < blocks; j++) {
+            int i = j * AES.BLOCK_SIZE;
+            putLongLE(out, outOff + i, getLongLE(in, inOff + i) ^ tweaks[2 * (first + j)]);
+            putLongLE(out, outOff + i + 8, getLongLE(in, inOff + i + 8) ^ tweaks[2 * (first + j) + 1]);
+        }
+    }
+
+    // -- Private Static --
+    //   Role: Read eight bytes as a little-endian long.
+    //   Args: in - Array to read from.
+    //         offset - Offset of the first byte.
+    // Return: long
+    //
+    private static long getLongLE(byte[] in, int offset) {
+        return (long) LONGS_LE.get(in, offset);
+    }
+
+    // -- Private Static --
+    //   Role: Write a long as eight little-endian bytes.
+    //   Args: out - Array to write to.
+    //         offset - Offset of the first byte.
+    //         value - Value to write.
+    // Return: Void
+    //
+    private static void putLongLE(byte[] out, int offset, long value) {
+        LONGS_LE.set(out, offset, value);
+    }
+
+    // -- Getters and Setters -- //
+
+    public int getSectorSize() {
+        return sectorSize;
+    }
+
+    // Must not be changed part way through a stream.
+    public void setSectorSize(int sectorSize) {
+        if (sectorSize < AES.BLOCK_SIZE)
+            throw new IllegalArgumentException(String.format("XTS sectors must be at least %d bytes", AES.BLOCK_SIZE));
+        this.sectorSize = sectorSize;
+    }
+
+    public AESKey getTweakKey() {
+        return tweakKey;
+    }
+}